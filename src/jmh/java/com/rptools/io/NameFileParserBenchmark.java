@@ -0,0 +1,59 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.io;
+
+import com.rptools.metrics.InMemoryMetricsRegistry;
+import com.rptools.name.Names;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Training a name model from file contents already in memory, so only parsing and training are
+ * measured, not reading the file or its snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class NameFileParserBenchmark {
+
+  @Param({"names.txt", "lastNames.txt"})
+  private String fileName;
+
+  private NameFileParser parser;
+  private String data;
+
+  @Setup
+  public void setUp() {
+    parser = new NameFileParser(new InMemoryMetricsRegistry());
+    data = parser.readFile(fileName);
+  }
+
+  @Benchmark
+  public Names parseFileData() {
+    return parser.parseFileData(data);
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.name;
+
+import com.rptools.io.NameFileParser;
+import com.rptools.metrics.InMemoryMetricsRegistry;
+import com.rptools.metrics.MetricsRegistry;
+import com.rptools.util.StartupExecutor;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.core.env.StandardEnvironment;
+
+/**
+ * Full name generation through {@link NameGen} at several batch sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class NameGenBenchmark {
+
+  @Param({"1", "10", "100", "1000"})
+  private int batch;
+
+  private NameGen nameGen;
+
+  @Setup
+  public void setUp() {
+    StandardEnvironment environment = new StandardEnvironment();
+    MetricsRegistry metrics = new InMemoryMetricsRegistry();
+    StartupExecutor startup = new StartupExecutor(environment);
+    nameGen = new NameGen(new NameFileParser(metrics), environment, metrics, startup);
+    nameGen.getReady().join();
+    startup.shutdown();
+  }
+
+  @TearDown
+  public void tearDown() {
+    nameGen.shutdown();
+  }
+
+  @Benchmark
+  public List<String> generateNames() {
+    return nameGen.generateNames(batch);
+  }
+}
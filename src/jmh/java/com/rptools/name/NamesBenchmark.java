@@ -0,0 +1,57 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.name;
+
+import com.rptools.io.NameFileParser;
+import com.rptools.metrics.InMemoryMetricsRegistry;
+import com.rptools.util.RandomSource;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A single word from the first name model at each Markov depth.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class NamesBenchmark {
+
+  @Param({"2", "3"})
+  private int depth;
+
+  private Names names;
+
+  @Setup
+  public void setUp() {
+    names = new NameFileParser(new InMemoryMetricsRegistry()).parseFile("names.txt");
+  }
+
+  @Benchmark
+  public String makeName() {
+    return names.makeName(depth, RandomSource.threadLocal());
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.table;
+
+import com.google.common.collect.ImmutableMap;
+import com.rptools.io.TableFileParser;
+import com.rptools.metrics.InMemoryMetricsRegistry;
+import com.rptools.metrics.MetricsRegistry;
+import com.rptools.util.StartupExecutor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+/**
+ * A full {@link TableReader} load, from the table files or from the binary bundle. Each
+ * invocation builds a new reader, so nothing is cached between loads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+public class TableReaderBenchmark {
+
+  @Param({"false", "true"})
+  private boolean bundle;
+
+  private StandardEnvironment environment;
+  private StartupExecutor startup;
+
+  @Setup
+  public void setUp() {
+    environment = new StandardEnvironment();
+    environment.getPropertySources().addFirst(new MapPropertySource(
+        "benchmark", ImmutableMap.<String, Object>of("rptools.tables.bundle", bundle)));
+    startup = new StartupExecutor(environment);
+  }
+
+  @TearDown
+  public void tearDown() {
+    startup.shutdown();
+  }
+
+  @Benchmark
+  public RPTable load() {
+    MetricsRegistry metrics = new InMemoryMetricsRegistry();
+    return new TableReader(new TableFileParser(metrics), environment, metrics, startup)
+        .getTables();
+  }
+}
@@ -1,26 +1,55 @@
 package com.rptools.city;
 
-import com.dzlier.weight.WeightedList;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Lists;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.rptools.city.City.Species;
 import com.rptools.io.CityFileParser;
+import com.rptools.io.DataFileListener;
+import com.rptools.io.MessageStreamWriter;
+import com.rptools.metrics.Counter;
+import com.rptools.metrics.Histogram;
+import com.rptools.metrics.MetricsRegistry;
 import com.rptools.name.NameGen;
+import com.rptools.name.NameSet;
+import com.rptools.util.RandomSource;
+import com.rptools.util.Readiness;
+import com.rptools.util.StartupExecutor;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.Random;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import lombok.extern.apachecommons.CommonsLog;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
+/**
+ * Generates cities and regions of cities from the inn and guild patterns in cityData.json and names
+ * from {@link NameGen}.
+ *
+ * Seeded cities are cached serialized, keyed by their seed and parameters, so a shared link to one
+ * is generated once: up to rptools.cities.cache.size cities (default 1000), each kept until it goes
+ * unused for rptools.cities.cache.minutes (default 60). Cities made from older data are never
+ * served; the cache's hits, misses and size are in the "cities.cache.*" gauges.
+ */
 @Component
 @CommonsLog
-public class CityGen {
-
-  private static final Random rand = new Random();
+public class CityGen implements DataFileListener, Readiness {
 
   // search mods are static numbers based on number
   private static NavigableMap<Integer, Integer> searchMods = new TreeMap<Integer, Integer>() {
@@ -35,44 +64,210 @@ public class CityGen {
     }
   };
 
-  private final Cities cityData;
+  private static final String CITY_DATA = "cityData.json";
+  private static final String RELOADED = "Reloaded city file %s.";
+  private static final String LOAD_ERROR = "Could not load city file %s.";
+  private static final String INN_SLOTS = "anp";
+  private static final String GUILD_SLOTS = "gn";
+  // inns named after someone; a city's own and its ruler's names come from their species
+  private static final int CITY_NAME_BATCH = 2;
+  private static final int REGION_NAME_BATCH = 64;
+  private static final int CITIES_PER_TASK = 8;
+  private static final String CACHE_SIZE = "rptools.cities.cache.size";
+  private static final String CACHE_MINUTES = "rptools.cities.cache.minutes";
+
+  private final CityFileParser cityFileParser;
   private final NameGen nameGen;
+  private final Histogram generateTime;
+  private final Counter generated;
+  // swapped whole when the city file is reloaded
+  private volatile Patterns patterns;
+  // bumped after the patterns are swapped, so a city is cached under the patterns it was made with
+  private final AtomicLong revision = new AtomicLong();
+  private final LoadingCache<CityKey, ByteString> cache;
+  private final Template.SlotSource<Generation> innSlots = this::appendInnSlot;
+  private final Template.SlotSource<Generation> guildSlots = this::appendGuildSlot;
+  private final CompletableFuture<Void> ready;
 
   @Autowired
-  public CityGen(CityFileParser cityFileParser, NameGen nameGen) {
+  public CityGen(CityFileParser cityFileParser, NameGen nameGen, Environment environment,
+                 MetricsRegistry metrics, StartupExecutor startup) {
+    this.cityFileParser = cityFileParser;
     this.nameGen = nameGen;
-    cityData = cityFileParser.parseFile("cityData.json");
+    // per city, including each city of a region
+    generateTime = metrics.histogram("cities.generate");
+    generated = metrics.counter("cities.generated");
+    cache = CacheBuilder.newBuilder()
+                        .maximumSize(environment.getProperty(CACHE_SIZE, Long.class, 1000L))
+                        .expireAfterAccess(environment.getProperty(CACHE_MINUTES, Long.class, 60L),
+                                           TimeUnit.MINUTES)
+                        .recordStats()
+                        .build(CacheLoader.from(this::generateBytes));
+    metrics.gauge("cities.cache.hits", () -> cache.stats().hitCount());
+    metrics.gauge("cities.cache.misses", () -> cache.stats().missCount());
+    metrics.gauge("cities.cache.size", cache::size);
+    CompletableFuture<Void> loaded = startup.supply(this::loadPatterns)
+                                            .thenAccept(parsed -> patterns = parsed);
+    ready = CompletableFuture.allOf(loaded, nameGen.getReady());
+  }
+
+  /**
+   * Completes once the city file is parsed and {@link NameGen} is ready; the city file is parsed
+   * while the name models train.
+   */
+  @Override
+  public CompletableFuture<Void> getReady() {
+    return ready;
+  }
+
+  private Patterns loadPatterns() {
+    Cities cityData = cityFileParser.parseFile(CITY_DATA);
+    if (cityData == null) {
+      throw new IllegalStateException(String.format(LOAD_ERROR, CITY_DATA));
+    }
+    return new Patterns(cityData);
+  }
+
+  /**
+   * Re-parses the inn and guild patterns when the city file changes, and swaps them in once parsed.
+   * Changes wait for the city file to finish loading.
+   */
+  @Override
+  public void dataFileChanged(Path file, boolean deleted) {
+    if (deleted || !file.getFileName().toString().equals(CITY_DATA)) {
+      return;
+    }
+    // the first load must finish first, or it would overwrite the reloaded patterns
+    ready.join();
+    Cities cityData = cityFileParser.parseFile(CITY_DATA);
+    if (cityData != null) {
+      patterns = new Patterns(cityData);
+      revision.incrementAndGet();
+      cache.invalidateAll();
+      log.info(String.format(RELOADED, CITY_DATA));
+    }
   }
 
   public City generateCity(Double size, Double diversity, Species species) {
-    City.Builder city = City.newBuilder();
-    // generate name for city and ruler in same call
-    List<String> names = nameGen.generateNames(2);
-    if (rand.nextDouble() < .2) {
-      city.setName(names.get(0));
-    } else {
-      city.setName(names.get(0).split(" ")[0]);
+    return generateCity(size, diversity, species, RandomSource.threadLocal());
+  }
+
+  /**
+   * Generates a city that is the same every time for the same parameters and {@param seed}, from
+   * the cache if it was generated recently.
+   */
+  public City generateCity(Double size, Double diversity, Species species, long seed) {
+    try {
+      return City.parseFrom(generateCityBytes(size, diversity, species, seed));
+    } catch (InvalidProtocolBufferException e) {
+      // the cache only holds cities it serialized itself
+      throw new IllegalStateException(e);
     }
+  }
 
+  /**
+   * Like {@link #generateCity(Double, Double, Species, long)}, but returns the city serialized, as
+   * it is cached, for callers that send it on without reading it.
+   */
+  public ByteString generateCityBytes(Double size, Double diversity, Species species, long seed) {
+    ready.join();
+    return cache.getUnchecked(new CityKey(seed, size, diversity, species, revision.get(),
+                                          nameGen.getRevision()));
+  }
+
+  private ByteString generateBytes(CityKey key) {
+    return generateCity(key.size, key.diversity, key.species, RandomSource.seeded(key.seed))
+        .toByteString();
+  }
+
+  /**
+   * Generates a city, drawing every random choice from {@param rand}.
+   */
+  public City generateCity(Double size, Double diversity, Species species, RandomSource rand) {
+    ready.join();
+    return buildCity(size, diversity, species, new Generation(rand, CITY_NAME_BATCH));
+  }
+
+  /**
+   * Generates {@param count} cities with the same parameters, spread over the common fork/join
+   * pool. Names are generated in batches per task rather than one call per name.
+   *
+   * @return {@link Region} holding the cities in a stable order.
+   */
+  public Region generateCities(int count, Double size, Double diversity, Species species) {
+    return generateCities(count, size, diversity, species, RandomSource.threadLocal());
+  }
+
+  /**
+   * Generates a {@link Region} that is the same every time for the same parameters and {@param
+   * seed}, however the work is scheduled.
+   */
+  public Region generateCities(int count, Double size, Double diversity, Species species,
+                               long seed) {
+    return generateCities(count, size, diversity, species, RandomSource.seeded(seed));
+  }
+
+  /**
+   * Generates a {@link Region} of {@param count} cities, splitting {@param rand} for each task.
+   */
+  public Region generateCities(int count, Double size, Double diversity, Species species,
+                               RandomSource rand) {
+    ready.join();
+    List<City> cities = ForkJoinPool.commonPool()
+                                    .invoke(new CitiesTask(count, size, diversity, species, rand));
+    return Region.newBuilder().addAllCities(cities).build();
+  }
+
+  /**
+   * Generates {@param count} cities one after another on this thread, writing each to {@param out}
+   * as soon as it is made, so exports of any size hold one city at a time. Names are generated in
+   * batches as for a {@link Region}, but the cities differ from the region's for the same seed, as
+   * {@param rand} is not split.
+   */
+  public void generateCities(int count, Double size, Double diversity, Species species,
+                             RandomSource rand, MessageStreamWriter<City> out) throws IOException {
+    ready.join();
+    Generation gen = new Generation(rand, REGION_NAME_BATCH);
+    for (int i = 0; i < count; i++) {
+      out.write(buildCity(size, diversity, species, gen));
+    }
+  }
+
+  private City buildCity(Double size, Double diversity, Species species, Generation gen) {
+    long start = System.nanoTime();
+    RandomSource rand = gen.rand;
+    City.Builder city = City.newBuilder();
     City.Population.Builder popBuilder = city.getPopulationBuilder();
-    addPopulation(popBuilder, size, diversity, Optional.ofNullable(species).orElse(randSpecies()));
+    Species founders = Optional.ofNullable(species).orElse(randSpecies(rand));
+    addPopulation(popBuilder, size, diversity, founders, rand);
 
     // add 3 races, or sometimes 2 for low-diversity places
     int people = popBuilder.getPeopleMap().size();
     while (people < 3 || (people < 2 && rand.nextDouble() * .2 < diversity)) {
-      if (addPopulation(popBuilder, size, diversity, randSpecies())) {
+      if (addPopulation(popBuilder, size, diversity, randSpecies(rand), rand)) {
         people++;
       }
     }
 
-    city.getRulerBuilder().setName(names.get(1)).setSpecies(getWeightedRace(popBuilder));
-    city.addAllInns(generateInns(city.getPopulation().getTotal()));
-    city.addAllGuilds(generateGuilds(city.getPopulation().getTotal()));
+    // the city is named by its founders, and its ruler by the ruler's own species
+    Species rulerSpecies = getWeightedRace(popBuilder, rand);
+    NameSet founderNames = nameGen.forSpecies(founders);
+    NameSet rulerNames = rulerSpecies == founders ? founderNames
+                                                  : nameGen.forSpecies(rulerSpecies);
+    String cityName = founderNames.makeName(rand);
+    int space = cityName.indexOf(' ');
+    city.setName(rand.nextDouble() < .2 || space < 0 ? cityName : cityName.substring(0, space));
+    city.getRulerBuilder().setName(rulerNames.makeName(rand)).setSpecies(rulerSpecies);
+    city.addAllInns(generateInns(city.getPopulation().getTotal(), gen));
+    city.addAllGuilds(generateGuilds(city.getPopulation().getTotal(), gen));
 
-    return city.build();
+    City built = city.build();
+    generateTime.recordSince(start);
+    generated.increment();
+    return built;
   }
 
-  private Species randSpecies() {
+  private static Species randSpecies(RandomSource rand) {
     Species species = Species.values()[rand.nextInt(Species.values().length)];
     while (species == Species.UNRECOGNIZED) {
       species = Species.values()[rand.nextInt(Species.values().length)];
@@ -83,7 +278,8 @@ public class CityGen {
   private static boolean addPopulation(City.Population.Builder population,
                                        Double size,
                                        Double diversity,
-                                       Species species) {
+                                       Species species,
+                                       RandomSource rand) {
     Map<String, Integer> people = population.getPeopleMap();
     if (people.containsKey(species.name())) {
       return false;
@@ -97,62 +293,216 @@ public class CityGen {
     return true;
   }
 
-  private Species getWeightedRace(City.Population.Builder population) {
-    WeightedList<String> races = new WeightedList<>();
+  private static Species getWeightedRace(City.Population.Builder population,
+                                         RandomSource rand) {
+    double roll = rand.nextDouble() * population.getTotal();
+    String race = null;
     for (Entry<String, Integer> entry : population.getPeopleMap().entrySet()) {
-      races.add(entry.getValue() * 3.0, entry.getKey());
+      race = entry.getKey();
+      roll -= entry.getValue();
+      if (roll < 0) {
+        break;
+      }
     }
-    return Species.valueOf(races.random());
+    return Species.valueOf(race);
   }
 
-  private List<String> generateInns(int population) {
+  private List<String> generateInns(int population, Generation gen) {
     double size = Math.sqrt(Math.sqrt(population));
     List<String> inns = Lists.newArrayList();
+    StringBuilder inn = new StringBuilder();
     for (int i = 0; i < size; i++) {
-      inns.add(generateInn());
+      inn.setLength(0);
+      getFrom(gen.patterns.innBegPats, gen.rand).expand(inn, innSlots, gen);
+      inn.append(' ');
+      getFrom(gen.patterns.innEndPats, gen.rand).expand(inn, innSlots, gen);
+      inns.add(inn.toString());
     }
     return inns;
   }
 
-  private String generateInn() {
-    String inn = getFrom(cityData.getInns().getBegPatList()) + " " + getFrom(cityData.getInns()
-                                                                                     .getEndPatList());
-    while (inn.matches(".*\\{[^-]\\}.*")) {
-      inn = inn.replaceFirst("\\{a\\}", getFrom(cityData.getInns().getBegList()));
-      inn = inn.replaceFirst("\\{n\\}", getFrom(cityData.getInns().getEndList()));
-      inn = inn.replaceFirst("\\{p\\}", getName());
+  private void appendInnSlot(char slot, StringBuilder out, Generation gen) {
+    switch (slot) {
+      case 'a':
+        getFrom(gen.patterns.innBegs, gen.rand).expand(out, innSlots, gen);
+        break;
+      case 'n':
+        getFrom(gen.patterns.innEnds, gen.rand).expand(out, innSlots, gen);
+        break;
+      case 'p':
+        appendName(out, gen);
+        break;
     }
-    return inn;
   }
 
-  private List<String> generateGuilds(int population) {
+  private List<String> generateGuilds(int population, Generation gen) {
     List<String> guilds = Lists.newArrayList();
-    population -= rand.nextInt(500) + 2000;
+    StringBuilder guild = new StringBuilder();
+    population -= gen.rand.nextInt(500) + 2000;
     while (population > 0) {
-      population -= rand.nextInt(500) + 2000;
-      guilds.add(generateGuild());
+      population -= gen.rand.nextInt(500) + 2000;
+      guild.setLength(0);
+      getFrom(gen.patterns.guildPats, gen.rand).expand(guild, guildSlots, gen);
+      guilds.add(guild.toString());
     }
     return guilds;
   }
 
-  private String generateGuild() {
-    String guild = getFrom(cityData.getGuilds().getPatList());
-    while (guild.matches(".*\\{[^-]\\}.*")) {
-      guild = guild.replaceFirst("\\{g\\}", getFrom(cityData.getGuilds().getGroupList()));
-      guild = guild.replaceFirst("\\{n\\}", getFrom(cityData.getGuilds().getNounList()));
+  private void appendGuildSlot(char slot, StringBuilder out, Generation gen) {
+    switch (slot) {
+      case 'g':
+        getFrom(gen.patterns.guildGroups, gen.rand).expand(out, guildSlots, gen);
+        break;
+      case 'n':
+        getFrom(gen.patterns.guildNouns, gen.rand).expand(out, guildSlots, gen);
+        break;
     }
-    return guild;
   }
 
-  private String getName() {
-    String name = nameGen.generateNames(1).get(0);
-    if (rand.nextDouble() > .2) {
-      return name.split(" ")[0];
+  private void appendName(StringBuilder out, Generation gen) {
+    String name = gen.nextName();
+    int space = name.indexOf(' ');
+    if (gen.rand.nextDouble() > .2 && space >= 0) {
+      out.append(name, 0, space);
+    } else {
+      out.append(name);
+    }
+  }
+
+  private static Template getFrom(Template[] templates, RandomSource rand) {
+    return templates[rand.nextInt(templates.length)];
+  }
+
+  /**
+   * Inn and guild patterns from {@link Cities}, parsed once so generating inns and guilds is just
+   * appending.
+   */
+  private static final class Patterns {
+
+    private final Template[] innBegPats;
+    private final Template[] innBegs;
+    private final Template[] innEndPats;
+    private final Template[] innEnds;
+    private final Template[] guildPats;
+    private final Template[] guildGroups;
+    private final Template[] guildNouns;
+
+    private Patterns(Cities cityData) {
+      innBegPats = Template.parseAll(cityData.getInns().getBegPatList(), INN_SLOTS);
+      innBegs = Template.parseAll(cityData.getInns().getBegList(), INN_SLOTS);
+      innEndPats = Template.parseAll(cityData.getInns().getEndPatList(), INN_SLOTS);
+      innEnds = Template.parseAll(cityData.getInns().getEndList(), INN_SLOTS);
+      guildPats = Template.parseAll(cityData.getGuilds().getPatList(), GUILD_SLOTS);
+      guildGroups = Template.parseAll(cityData.getGuilds().getGroupList(), GUILD_SLOTS);
+      guildNouns = Template.parseAll(cityData.getGuilds().getNounList(), GUILD_SLOTS);
+    }
+  }
+
+  /**
+   * Everything a seeded city depends on: its seed and parameters, and the revisions of the data it
+   * is generated from.
+   */
+  private static final class CityKey {
+
+    private final long seed;
+    private final Double size;
+    private final Double diversity;
+    private final Species species;
+    private final long patternsRevision;
+    private final long namesRevision;
+
+    private CityKey(long seed, Double size, Double diversity, Species species,
+                    long patternsRevision, long namesRevision) {
+      this.seed = seed;
+      this.size = size;
+      this.diversity = diversity;
+      this.species = species;
+      this.patternsRevision = patternsRevision;
+      this.namesRevision = namesRevision;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof CityKey)) {
+        return false;
+      }
+      CityKey key = (CityKey) other;
+      return seed == key.seed && patternsRevision == key.patternsRevision
+             && namesRevision == key.namesRevision && Objects.equals(size, key.size)
+             && Objects.equals(diversity, key.diversity) && species == key.species;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(seed, size, diversity, species, patternsRevision, namesRevision);
+    }
+  }
+
+  /**
+   * State for generating cities on one thread: the random source, the patterns in use when it
+   * started, and names generated ahead in batches so each city does not call {@link NameGen} once
+   * per name.
+   */
+  private final class Generation {
+
+    private final RandomSource rand;
+    private final Patterns patterns = CityGen.this.patterns;
+    private final int nameBatch;
+    private List<String> names = Collections.emptyList();
+    private int next;
+
+    private Generation(RandomSource rand, int nameBatch) {
+      this.rand = rand;
+      this.nameBatch = nameBatch;
+    }
+
+    private String nextName() {
+      if (next == names.size()) {
+        names = nameGen.generateNames(nameBatch, rand);
+        next = 0;
+      }
+      return names.get(next++);
     }
-    return name;
   }
 
-  private String getFrom(List<String> list) {
-    return list.get(rand.nextInt(list.size()));
+  /**
+   * Splits a run of cities in half until it is small enough to generate on one thread. Each half
+   * gets its own split of the random source, so seeded runs do not depend on scheduling.
+   */
+  private final class CitiesTask extends RecursiveTask<List<City>> {
+
+    private final int count;
+    private final Double size;
+    private final Double diversity;
+    private final Species species;
+    private final RandomSource rand;
+
+    private CitiesTask(int count, Double size, Double diversity, Species species,
+                       RandomSource rand) {
+      this.count = count;
+      this.size = size;
+      this.diversity = diversity;
+      this.species = species;
+      this.rand = rand;
+    }
+
+    @Override
+    protected List<City> compute() {
+      if (count <= CITIES_PER_TASK) {
+        Generation gen = new Generation(rand, REGION_NAME_BATCH);
+        List<City> cities = Lists.newArrayListWithCapacity(Math.max(count, 0));
+        for (int i = 0; i < count; i++) {
+          cities.add(buildCity(size, diversity, species, gen));
+        }
+        return cities;
+      }
+      int half = count / 2;
+      CitiesTask left = new CitiesTask(half, size, diversity, species, rand.split());
+      CitiesTask right = new CitiesTask(count - half, size, diversity, species, rand.split());
+      left.fork();
+      List<City> cities = Lists.newArrayList(right.compute());
+      cities.addAll(0, left.join());
+      return cities;
+    }
   }
 }
@@ -0,0 +1,91 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rptools.city;
+
+import com.google.common.collect.Lists;
+import java.util.List;
+
+/**
+ * A name pattern from {@link Cities} such as "The {a} {n}", parsed once into alternating literal
+ * text and single-character slots. Expanding a template appends the literals and asks a {@link
+ * SlotSource} to fill each slot, so no regex or intermediate {@link String} is involved.
+ */
+final class Template {
+
+  /**
+   * Appends the text for a slot in a {@link Template}.
+   *
+   * @param <C> Per-expansion state handed through to the source, i.e. the random source.
+   */
+  @FunctionalInterface
+  interface SlotSource<C> {
+
+    void append(char slot, StringBuilder out, C context);
+  }
+
+  // literals[i] precedes slots[i]; the last literal follows the last slot
+  private final String[] literals;
+  private final char[] slots;
+
+  private Template(String[] literals, char[] slots) {
+    this.literals = literals;
+    this.slots = slots;
+  }
+
+  /**
+   * Parses {@param pattern}, treating "{x}" as a slot only when x is one of {@param slotChars}.
+   * Anything else, such as "{-}", is kept as literal text.
+   */
+  static Template parse(String pattern, String slotChars) {
+    List<String> literals = Lists.newArrayList();
+    StringBuilder slots = new StringBuilder();
+    int literalStart = 0;
+    for (int i = 0; i + 2 < pattern.length(); i++) {
+      if (pattern.charAt(i) == '{' && pattern.charAt(i + 2) == '}'
+          && slotChars.indexOf(pattern.charAt(i + 1)) >= 0) {
+        literals.add(pattern.substring(literalStart, i));
+        slots.append(pattern.charAt(i + 1));
+        literalStart = i + 3;
+        i += 2;
+      }
+    }
+    literals.add(pattern.substring(literalStart));
+    return new Template(literals.toArray(new String[literals.size()]),
+                        slots.toString().toCharArray());
+  }
+
+  /**
+   * Parses every pattern in {@param patterns}. See {@link #parse(String, String)}.
+   */
+  static Template[] parseAll(List<String> patterns, String slotChars) {
+    Template[] templates = new Template[patterns.size()];
+    for (int i = 0; i < templates.length; i++) {
+      templates[i] = parse(patterns.get(i), slotChars);
+    }
+    return templates;
+  }
+
+  <C> void expand(StringBuilder out, SlotSource<C> source, C context) {
+    for (int i = 0; i < slots.length; i++) {
+      out.append(literals[i]);
+      source.append(slots[i], out, context);
+    }
+    out.append(literals[slots.length]);
+  }
+}
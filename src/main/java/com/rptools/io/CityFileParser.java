@@ -21,7 +21,9 @@ package com.rptools.io;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.util.JsonFormat;
 import com.rptools.city.Cities;
+import com.rptools.metrics.MetricsRegistry;
 import lombok.extern.apachecommons.CommonsLog;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 /**
@@ -30,6 +32,11 @@ import org.springframework.stereotype.Component;
 @Component
 @CommonsLog
 public class CityFileParser extends FileParser<Cities> {
+    @Autowired
+    public CityFileParser(MetricsRegistry metrics) {
+        super(metrics);
+    }
+
     @Override
     protected Cities parseFileData(String data) {
         Cities cities = null;
@@ -0,0 +1,36 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rptools.io;
+
+import java.nio.file.Path;
+
+/**
+ * Component that reloads its data when a file under /data/ changes. Every such component is
+ * told about every change and ignores the files it does not read.
+ */
+public interface DataFileListener {
+
+  /**
+   * Called from the {@link DataFileWatcher} thread when a file under /data/ changes.
+   *
+   * @param file Absolute path of the file.
+   * @param deleted If the file was deleted, rather than created or modified.
+   */
+  void dataFileChanged(Path file, boolean deleted);
+}
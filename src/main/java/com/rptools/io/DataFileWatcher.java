@@ -0,0 +1,195 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rptools.io;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import com.google.common.collect.Maps;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.annotation.PreDestroy;
+import lombok.extern.apachecommons.CommonsLog;
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Watches /data/ for changed files while the service runs, when rptools.data.watch is set, and
+ * hands each change to every {@link DataFileListener} so it can reload just that file. Only works
+ * when /data/ is a directory on the file system rather than inside a jar.
+ *
+ * Editors often save a file in several writes, so a change is only handed on once the file has
+ * had no events for rptools.data.watch.quiet milliseconds (default 250).
+ */
+@Component
+@CommonsLog
+public class DataFileWatcher {
+
+  private static final String WATCH = "rptools.data.watch";
+  private static final String QUIET = "rptools.data.watch.quiet";
+  private static final String WATCH_ERROR = "Error watching data directory %s.";
+  private static final String LISTENER_ERROR = "Error reloading data file %s.";
+
+  private final List<DataFileListener> listeners;
+  private final Map<WatchKey, Path> directories = Maps.newConcurrentMap();
+  private final long quietNanos;
+  private WatchService watchService;
+
+  @Autowired
+  public DataFileWatcher(List<DataFileListener> listeners, Environment environment) {
+    this.listeners = listeners;
+    quietNanos = TimeUnit.MILLISECONDS.toNanos(environment.getProperty(QUIET, Long.class, 250L));
+    if (!environment.getProperty(WATCH, Boolean.class, false)) {
+      return;
+    }
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    File data = FileUtils.toFile(classLoader.getResource("/data/"));
+    if (data == null) {
+      log.warn("Data files are not on the file system, not watching them.");
+      return;
+    }
+    try {
+      watchService = FileSystems.getDefault().newWatchService();
+      register(data.toPath());
+    } catch (IOException e) {
+      log.error(String.format(WATCH_ERROR, data), e);
+      return;
+    }
+    Thread thread = new Thread(this::watch, "data-file-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @PreDestroy
+  public void shutdown() throws IOException {
+    if (watchService != null) {
+      watchService.close();
+    }
+  }
+
+  private void register(Path root) throws IOException {
+    try (Stream<Path> paths = Files.walk(root)) {
+      for (Path dir : (Iterable<Path>) paths.filter(Files::isDirectory)::iterator) {
+        directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+      }
+    }
+  }
+
+  private void watch() {
+    // ordered by each file's last event, so the first is always the first to go quiet
+    Map<Path, Change> pending = Maps.newLinkedHashMap();
+    while (true) {
+      WatchKey key;
+      try {
+        key = pending.isEmpty() ? watchService.take()
+                                : watchService.poll(untilQuiet(pending), TimeUnit.NANOSECONDS);
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        log.debug("Stopped watching data files.");
+        return;
+      }
+      if (key != null) {
+        queueEvents(key, pending);
+      }
+      notifyQuiet(pending);
+    }
+  }
+
+  private void queueEvents(WatchKey key, Map<Path, Change> pending) {
+    Path dir = directories.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW || dir == null) {
+        continue;
+      }
+      Path file = dir.resolve((Path) event.context());
+      try {
+        if (event.kind() == ENTRY_CREATE && Files.isDirectory(file)) {
+          register(file);
+        } else if (!Files.isDirectory(file)) {
+          pending.remove(file);
+          pending.put(file, new Change(event.kind() == ENTRY_DELETE, System.nanoTime()));
+        }
+      } catch (IOException | UncheckedIOException e) {
+        // i.e. a directory removed again before it was registered; keep watching the rest
+        log.error(String.format(WATCH_ERROR, file), e);
+      }
+    }
+    if (!key.reset()) {
+      directories.remove(key);
+    }
+  }
+
+  private long untilQuiet(Map<Path, Change> pending) {
+    Change first = pending.values().iterator().next();
+    return Math.max(0, first.time + quietNanos - System.nanoTime());
+  }
+
+  private void notifyQuiet(Map<Path, Change> pending) {
+    long now = System.nanoTime();
+    Iterator<Map.Entry<Path, Change>> changes = pending.entrySet().iterator();
+    while (changes.hasNext()) {
+      Map.Entry<Path, Change> change = changes.next();
+      if (now - change.getValue().time < quietNanos) {
+        return;
+      }
+      changes.remove();
+      notifyListeners(change.getKey(), change.getValue().deleted);
+    }
+  }
+
+  private void notifyListeners(Path file, boolean deleted) {
+    for (DataFileListener listener : listeners) {
+      try {
+        listener.dataFileChanged(file, deleted);
+      } catch (RuntimeException e) {
+        log.error(String.format(LISTENER_ERROR, file), e);
+      }
+    }
+  }
+
+  /**
+   * The latest event for a file that is still changing.
+   */
+  private static final class Change {
+
+    private final boolean deleted;
+    private final long time;
+
+    private Change(boolean deleted, long time) {
+      this.deleted = deleted;
+      this.time = time;
+    }
+  }
+}
@@ -18,20 +18,31 @@
 
 package com.rptools.io;
 
+import com.rptools.metrics.MetricsRegistry;
 import lombok.extern.apachecommons.CommonsLog;
 import org.apache.commons.io.IOUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
 
 /**
- * Parses a file into a tangible/useful object.
+ * Parses a file into a tangible/useful object. Every {@link #parseFile} is timed in the
+ * "data.load.[fileName]" histogram, and failed loads are counted in "data.load.errors".
  *
  * @param <T> The type of data the text file is parsed into.
  */
 @CommonsLog
 abstract class FileParser<T> {
   private static final String PARSE_ERROR = "Error parsing local file %s.";
+  private static final String LOAD_METRIC = "data.load.%s";
+  private static final String LOAD_ERRORS = "data.load.errors";
+
+  private final MetricsRegistry metrics;
+
+  protected FileParser(MetricsRegistry metrics) {
+    this.metrics = metrics;
+  }
 
   /**
    * Parses /data/[fileName] into an object T.
@@ -39,17 +50,98 @@ abstract class FileParser<T> {
    * @return T Parsed contents of file.
    */
   public T parseFile(String fileName) {
-    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
-    InputStream input = classLoader.getResourceAsStream("/data/" + fileName);
-    try {
-      String data = IOUtils.toString(input, "UTF-8");
-      return parseFileData(data);
+    long start = System.nanoTime();
+    T parsed = loadFile(fileName);
+    metrics.histogram(String.format(LOAD_METRIC, fileName)).recordSince(start);
+    if (parsed == null) {
+      metrics.counter(LOAD_ERRORS).increment();
+    }
+    return parsed;
+  }
+
+  /**
+   * Loads /data/[fileName] for {@link #parseFile}; by default reads it whole and calls {@link
+   * #parseFileData}.
+   * @param fileName The file to parse.
+   * @return T Parsed contents of file, or null if it could not be read.
+   */
+  protected T loadFile(String fileName) {
+    String data = readFile(fileName);
+    return data == null ? null : parseFileData(data);
+  }
+
+  /**
+   * Parses /data/[fileName] into an object T as the file is read, without first reading the whole
+   * file into a String. Parsers that do not override {@link #parseStream} still read it whole.
+   * @param fileName The file to parse.
+   * @return T Parsed contents of file.
+   */
+  public T streamFile(String fileName) {
+    try (InputStream input = openResource(fileName)) {
+      if (input == null) {
+        log.error(String.format(PARSE_ERROR, "/data/" + fileName));
+        return null;
+      }
+      return parseStream(input);
+    } catch (IOException e) {
+      log.error(String.format(PARSE_ERROR, "/data/" + fileName), e);
+      return null;
+    }
+  }
+
+  /**
+   * @param fileName A file under /data/.
+   * @return Whether /data/[fileName] exists.
+   */
+  public boolean hasFile(String fileName) {
+    return getResource(fileName) != null;
+  }
+
+  /**
+   * Reads /data/[fileName] into a String.
+   * @param fileName The file to read.
+   * @return String contents of file, or null if it could not be read.
+   */
+  protected String readFile(String fileName) {
+    try (InputStream input = openResource(fileName)) {
+      if (input == null) {
+        log.error(String.format(PARSE_ERROR, "/data/" + fileName));
+        return null;
+      }
+      return IOUtils.toString(input, "UTF-8");
     } catch (IOException e) {
       log.error(String.format(PARSE_ERROR, "/data/" + fileName), e);
       return null;
     }
   }
 
+  /**
+   * @param fileName A file under /data/.
+   * @return Stream of /data/[fileName], or null if there is no such resource.
+   */
+  protected InputStream openResource(String fileName) {
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    return classLoader.getResourceAsStream("/data/" + fileName);
+  }
+
+  /**
+   * @param fileName A file under /data/.
+   * @return URL of /data/[fileName], or null if there is no such resource.
+   */
+  protected URL getResource(String fileName) {
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    return classLoader.getResource("/data/" + fileName);
+  }
+
+  /**
+   * Given a stream of the contents of a file, parse it into a useful object of type T.
+   * @param input UTF-8 contents of file.
+   * @return T Parsed contents of stream.
+   */
+  protected T parseStream(InputStream input) throws IOException {
+    return parseFileData(IOUtils.toString(input, "UTF-8"));
+  }
+
   /**
    * Given the string contents of a file, parse it into a useful object of type T.
    * @param data String contents of file.
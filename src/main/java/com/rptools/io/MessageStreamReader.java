@@ -0,0 +1,132 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.io;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+import com.google.protobuf.util.JsonFormat;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the protobuf messages a {@link MessageStreamWriter} wrote, one at a time, so streams of
+ * any length are read holding only the current message. JSON messages are parsed into one reused
+ * builder.
+ *
+ * Reading errors are thrown from {@link #hasNext} and {@link #next} as {@link
+ * UncheckedIOException}s.
+ *
+ * @param <T> The type of message read.
+ */
+public class MessageStreamReader<T extends Message> implements Iterator<T>, Closeable {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final JsonFormat.Parser JSON_PARSER = JsonFormat.parser();
+
+  private final InputStream in;
+  private final CodedInputStream coded;
+  private final Parser<T> parser;
+  private final BufferedReader reader;
+  private final Message.Builder builder;
+  private T next;
+
+  /**
+   * @param in Stream read from; closed by {@link #close}.
+   * @param format How the messages were written.
+   * @param prototype Any message of the type read, i.e. {@code City.getDefaultInstance()}.
+   */
+  @SuppressWarnings("unchecked")
+  public MessageStreamReader(InputStream in, StreamFormat format, T prototype) {
+    this.in = in;
+    if (format == StreamFormat.DELIMITED) {
+      coded = CodedInputStream.newInstance(new BufferedInputStream(in, BUFFER_SIZE));
+      parser = (Parser<T>) prototype.getParserForType();
+      reader = null;
+      builder = null;
+    } else {
+      coded = null;
+      parser = null;
+      reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+      builder = prototype.newBuilderForType();
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next == null) {
+      try {
+        next = coded != null ? readDelimited() : readJson();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return next != null;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    T message = next;
+    next = null;
+    return message;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private T readDelimited() throws IOException {
+    if (coded.isAtEnd()) {
+      return null;
+    }
+    // the size limit is for one message, not the whole stream
+    coded.resetSizeCounter();
+    int limit = coded.pushLimit(coded.readRawVarint32());
+    T message = parser.parseFrom(coded);
+    coded.popLimit(limit);
+    return message;
+  }
+
+  @SuppressWarnings("unchecked")
+  private T readJson() throws IOException {
+    String line = reader.readLine();
+    while (line != null && line.isEmpty()) {
+      line = reader.readLine();
+    }
+    if (line == null) {
+      return null;
+    }
+    builder.clear();
+    JSON_PARSER.merge(line, builder);
+    return (T) builder.build();
+  }
+}
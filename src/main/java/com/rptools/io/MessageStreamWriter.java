@@ -0,0 +1,149 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.io;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Message;
+import com.google.protobuf.util.JsonFormat;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes protobuf messages to an {@link OutputStream} one at a time as they are made, so exports of
+ * any number of messages only ever hold one. Every message goes through the same buffer, flushed
+ * to the stream when full and on {@link #flush} or {@link #close}.
+ *
+ * Read the stream back with a {@link MessageStreamReader} in the same {@link StreamFormat}.
+ *
+ * @param <T> The type of message written.
+ */
+public class MessageStreamWriter<T extends Message> implements Closeable, Flushable {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final JsonFormat.Printer PRINTER = JsonFormat.printer();
+
+  private final OutputStream out;
+  private final CodedOutputStream coded;
+  private final Writer writer;
+  private final Appendable line;
+  private long count;
+
+  /**
+   * @param out Stream written to; closed by {@link #close}.
+   * @param format How each message is written.
+   */
+  public MessageStreamWriter(OutputStream out, StreamFormat format) {
+    this.out = out;
+    if (format == StreamFormat.DELIMITED) {
+      coded = CodedOutputStream.newInstance(out, BUFFER_SIZE);
+      writer = null;
+      line = null;
+    } else {
+      coded = null;
+      writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8),
+                                  BUFFER_SIZE);
+      line = new SingleLine(writer);
+    }
+  }
+
+  /**
+   * Writes {@param message} after those already written.
+   */
+  public void write(T message) throws IOException {
+    if (coded != null) {
+      coded.writeUInt32NoTag(message.getSerializedSize());
+      message.writeTo(coded);
+    } else {
+      PRINTER.appendTo(message, line);
+      writer.write('\n');
+    }
+    count++;
+  }
+
+  /**
+   * @return Number of messages written so far.
+   */
+  public long getCount() {
+    return count;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (coded != null) {
+      coded.flush();
+    } else {
+      writer.flush();
+    }
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Drops the line breaks, and the indentation after them, from the pretty-printed JSON written
+   * through it. JSON escapes line breaks inside strings, so every one it sees is formatting.
+   */
+  private static final class SingleLine implements Appendable {
+
+    private final Writer writer;
+    private boolean indent;
+
+    private SingleLine(Writer writer) {
+      this.writer = writer;
+    }
+
+    @Override
+    public Appendable append(CharSequence chars) throws IOException {
+      return append(chars, 0, chars.length());
+    }
+
+    @Override
+    public Appendable append(CharSequence chars, int start, int end) throws IOException {
+      for (int i = start; i < end; i++) {
+        append(chars.charAt(i));
+      }
+      return this;
+    }
+
+    @Override
+    public Appendable append(char c) throws IOException {
+      if (c == '\n') {
+        indent = true;
+      } else if (!(indent && c == ' ')) {
+        indent = false;
+        writer.write(c);
+      }
+      return this;
+    }
+  }
+}
@@ -18,53 +18,273 @@
 
 package com.rptools.io;
 
-import com.dzlier.markov.MarkovChain;
-import com.google.common.base.Joiner;
-import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.rptools.metrics.MetricsRegistry;
+import com.rptools.name.NameAttribute;
+import com.rptools.name.NameModel;
+import com.rptools.name.NameModelSnapshot;
 import com.rptools.name.Names;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import com.rptools.name.SegmentDictionary;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.ObjDoubleConsumer;
 import lombok.extern.apachecommons.CommonsLog;
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 /**
- * Parses first and last name data files. Creates {@link Names} object with a {@link MarkovChain}
+ * Parses first and last name data files. Creates {@link Names} object with a {@link NameModel}
  * that breaks {@link String} names down into their component parts. A component part is a series of
  * consonants or vowels.
+ *
+ * Name files hold "name:weight" pairs, which are tokenized straight from the file's bytes into the
+ * model, so no {@link String} is created per name.
+ *
+ * Trained models are saved as a {@link NameModelSnapshot} next to the data file, and loaded from
+ * there instead of retraining as long as neither the data file nor the snapshot format has changed.
+ *
+ * Every model this parser loads interns its segments into the same {@link SegmentDictionary}, so
+ * segment strings and identical transition arrays are stored once however many corpora are loaded.
+ *
+ * A name file can have an overlay for each {@link NameAttribute} next to it, i.e. names.noble.txt
+ * for names.txt, in the same format. Overlays are trained on top of the loaded model each time it
+ * is loaded; see {@link Names}.
  */
 @Component
 @CommonsLog
 public class NameFileParser extends FileParser<Names> {
-    private static final Joiner JOINER = Joiner.on("");
-    private static final Pattern groupPat = Pattern.compile("[^AEIOUY]+|[AEIOUY]+");
-    private static final Pattern namePat = Pattern.compile("\\w+:\\d+");
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String READ_ERROR = "Error reading name file %s.";
+    private static final String SNAPSHOT_EXT = ".snapshot";
+    private static final String TEMP_EXT = ".tmp";
+    private static final String SNAPSHOT_STALE = "Name snapshot %s is out of date, retraining.";
+    private static final String SNAPSHOT_READ_ERROR = "Error reading name snapshot %s.";
+    private static final String SNAPSHOT_WRITE_ERROR = "Error writing name snapshot %s.";
+    private static final String OVERLAY_READ_ERROR = "Error reading name overlay %s.";
+
+    private final SegmentDictionary dictionary = new SegmentDictionary();
+
+    @Autowired
+    public NameFileParser(MetricsRegistry metrics) {
+        super(metrics);
+    }
+
+    /**
+     * Loads /data/[fileName] into a {@link Names} object, from its snapshot if it is up to date.
+     * @param fileName The name data file.
+     * @return Names Model trained from the contents of the file.
+     */
+    @Override
+    protected Names loadFile(String fileName) {
+        Optional<Long> checksum = checksum(fileName);
+        if (!checksum.isPresent()) {
+            return null;
+        }
+        String snapshotName = fileName + SNAPSHOT_EXT;
+        Optional<NameModel> snapshot = readSnapshot(snapshotName, checksum.get());
+        Names names;
+        if (snapshot.isPresent()) {
+            names = new Names(snapshot.get());
+        } else {
+            names = streamFile(fileName);
+            if (names == null) {
+                return null;
+            }
+            writeSnapshot(fileName, names.getModel().toSnapshot(checksum.get()));
+        }
+        for (NameAttribute attribute : NameAttribute.values()) {
+            String overlayName = overlayFile(fileName, attribute);
+            if (attribute != NameAttribute.SKIP && hasFile(overlayName)) {
+                readOverlay(overlayName).ifPresent(overlay -> names.addOverlay(attribute, overlay));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return Name of the {@param attribute} overlay of the name file {@param fileName}, i.e.
+     * names.noble.txt for names.txt.
+     */
+    public static String overlayFile(String fileName, NameAttribute attribute) {
+        String suffix = attribute.name().toLowerCase(Locale.ROOT);
+        int dot = fileName.lastIndexOf('.');
+        return dot <= fileName.lastIndexOf('/') ? fileName + '.' + suffix
+                                                : fileName.substring(0, dot) + '.' + suffix
+                                                  + fileName.substring(dot);
+    }
 
     @Override
     protected Names parseFileData(String data) {
-        MarkovChain<String, String> markovChain = new MarkovChain<>(this::separateName, JOINER::join);
+        try {
+            return parseStream(new ByteArrayInputStream(data.getBytes(UTF_8)));
+        } catch (IOException e) {
+            // reading from a byte array does not throw
+            throw new IllegalStateException(e);
+        }
+    }
 
-        Matcher nameMatcher = namePat.matcher(data);
+    /**
+     * Tokenizes every "name:weight" pair in the stream into the model.
+     */
+    @Override
+    protected Names parseStream(InputStream input) throws IOException {
+        NameModel.Builder model = NameModel.builder(dictionary);
+        tokenize(input, model::process);
+        return new Names(model.build());
+    }
 
-        while (nameMatcher.find()) {
-            String[] nameFreq = nameMatcher.group().split(":");
-            String name = nameFreq[0];
-            Double weight = 1.0;
-            if (nameFreq.length > 1) {
-                weight = Double.valueOf(nameFreq[1]);
+    /**
+     * Passes every "name:weight" pair in the stream, i.e. matches of \w+:\d+, to {@param names}.
+     * The current name is kept in one reused buffer and the weight is parsed digit by digit.
+     */
+    private static void tokenize(InputStream input, ObjDoubleConsumer<CharSequence> names)
+            throws IOException {
+        StringBuilder name = new StringBuilder();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        boolean inWeight = false;
+        boolean hasDigits = false;
+        long weight = 0;
+
+        int read;
+        while ((read = input.read(buffer)) >= 0) {
+            for (int i = 0; i < read; i++) {
+                char c = (char) (buffer[i] & 0xFF);
+                if (inWeight) {
+                    if (c >= '0' && c <= '9') {
+                        weight = weight * 10 + (c - '0');
+                        hasDigits = true;
+                        continue;
+                    }
+                    if (hasDigits) {
+                        names.accept(name, weight);
+                    }
+                    inWeight = false;
+                    name.setLength(0);
+                }
+                if (isWordChar(c)) {
+                    name.append(c);
+                } else if (c == ':' && name.length() > 0) {
+                    inWeight = true;
+                    hasDigits = false;
+                    weight = 0;
+                } else {
+                    name.setLength(0);
+                }
+            }
+        }
+        if (inWeight && hasDigits) {
+            names.accept(name, weight);
+        }
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * Hashes /data/[fileName] a buffer at a time.
+     */
+    private Optional<Long> checksum(String fileName) {
+        try (InputStream input = openResource(fileName)) {
+            if (input == null) {
+                log.error(String.format(READ_ERROR, fileName));
+                return Optional.empty();
+            }
+            Hasher hasher = Hashing.murmur3_128().newHasher();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                hasher.putBytes(buffer, 0, read);
+            }
+            return Optional.of(hasher.hash().asLong());
+        } catch (IOException e) {
+            log.error(String.format(READ_ERROR, fileName), e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Reads the names and weights of an overlay file. Names are copied out of the tokenizer's
+     * buffer, as overlays are small and trained after reading.
+     */
+    private Optional<Map<String, Double>> readOverlay(String overlayName) {
+        try (InputStream input = openResource(overlayName)) {
+            if (input == null) {
+                log.error(String.format(OVERLAY_READ_ERROR, overlayName));
+                return Optional.empty();
             }
-            markovChain.process(name, weight);
+            Map<String, Double> overlay = Maps.newLinkedHashMap();
+            tokenize(input, (name, weight) -> {
+                if (weight > 0) {
+                    overlay.merge(name.toString(), weight, Double::sum);
+                }
+            });
+            return Optional.of(overlay);
+        } catch (IOException e) {
+            log.error(String.format(OVERLAY_READ_ERROR, overlayName), e);
+            return Optional.empty();
         }
+    }
 
-        return new Names(markovChain);
+    private Optional<NameModel> readSnapshot(String snapshotName, long checksum) {
+        try (InputStream input = openResource(snapshotName)) {
+            if (input == null) {
+                return Optional.empty();
+            }
+            NameModelSnapshot snapshot = NameModelSnapshot.parseFrom(new BufferedInputStream(input));
+            if (snapshot.getFormat() != NameModel.SNAPSHOT_FORMAT
+                || snapshot.getChecksum() != checksum) {
+                log.info(String.format(SNAPSHOT_STALE, snapshotName));
+                return Optional.empty();
+            }
+            return NameModel.fromSnapshot(snapshot, dictionary);
+        } catch (IOException e) {
+            log.error(String.format(SNAPSHOT_READ_ERROR, snapshotName), e);
+            return Optional.empty();
+        }
     }
 
-    private List<String> separateName(String name) {
-        Matcher segmentMatcher = groupPat.matcher(name);
-        List<String> segments = Lists.newArrayList();
-        while(segmentMatcher.find()) {
-            segments.add(segmentMatcher.group());
+    /**
+     * Saves the snapshot next to the data file, writing a temporary file first and moving it into
+     * place so a reader never sees a partly written snapshot. Does nothing when the data file is
+     * not on the file system, i.e. when it is packaged in a jar.
+     */
+    private void writeSnapshot(String fileName, NameModelSnapshot snapshot) {
+        File dataFile = FileUtils.toFile(getResource(fileName));
+        if (dataFile == null) {
+            log.debug("Not writing name snapshot for " + fileName);
+            return;
+        }
+        Path snapshotFile = new File(dataFile.getPath() + SNAPSHOT_EXT).toPath();
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(snapshotFile.getParent(), dataFile.getName(),
+                                            SNAPSHOT_EXT + TEMP_EXT);
+            try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(tempFile))) {
+                snapshot.writeTo(output);
+            }
+            Files.move(tempFile, snapshotFile, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error(String.format(SNAPSHOT_WRITE_ERROR, snapshotFile), e);
+            if (tempFile != null) {
+                FileUtils.deleteQuietly(tempFile.toFile());
+            }
         }
-        return segments;
     }
 }
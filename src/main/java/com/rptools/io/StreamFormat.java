@@ -0,0 +1,36 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.io;
+
+/**
+ * How {@link MessageStreamWriter} writes, and {@link MessageStreamReader} reads, a stream of
+ * protobuf messages.
+ */
+public enum StreamFormat {
+  /**
+   * Each message's size as a varint, then the message, as {@link
+   * com.google.protobuf.MessageLite#writeDelimitedTo} writes it.
+   */
+  DELIMITED,
+  /**
+   * Each message as JSON on a line of its own, i.e. newline-delimited JSON.
+   */
+  JSON
+}
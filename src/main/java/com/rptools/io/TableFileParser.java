@@ -21,7 +21,11 @@ package com.rptools.io;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
+import com.google.gson.stream.JsonReader;
 import com.google.protobuf.util.JsonFormat;
+import com.rptools.metrics.Counter;
+import com.rptools.metrics.Histogram;
+import com.rptools.metrics.MetricsRegistry;
 import com.rptools.table.RPTable;
 import com.rptools.table.RPTable.Entry;
 import java.io.File;
@@ -33,11 +37,16 @@ import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import lombok.extern.apachecommons.CommonsLog;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 /**
  * Parses text files representing random tables from the DMG into {@link
  * RPTable} objects. See {@link RPTable} for expected table file format.
+ *
+ * Parsing keeps no state between calls, so one parser can read many files at
+ * once. Each file parse is timed in the "tables.parse" histogram, and failures
+ * are counted in "tables.parse.errors".
  */
 @Component
 @CommonsLog
@@ -54,7 +63,14 @@ public class TableFileParser {
   private static final String EXT_TXT = ".txt";
   private static final String EXT_JSON = ".json";
 
-  private int roll = 1;
+  private final Histogram parseTime;
+  private final Counter parseErrors;
+
+  @Autowired
+  public TableFileParser(MetricsRegistry metrics) {
+    parseTime = metrics.histogram("tables.parse");
+    parseErrors = metrics.counter("tables.parse.errors");
+  }
 
   /**
    * Parse file found at path {@param file} into an RPTable object. See {@link
@@ -69,7 +85,15 @@ public class TableFileParser {
    * @return {@link RPTable.Builder} created from contents of input file.
    */
   public RPTable.Builder parseFile(Path file) {
-    roll = 1;
+    long start = System.nanoTime();
+    try {
+      return readTable(file);
+    } finally {
+      parseTime.recordSince(start);
+    }
+  }
+
+  private RPTable.Builder readTable(Path file) {
     try {
       List<String> lines = Files.readAllLines(file);
       RPTable.Builder builder = RPTable.newBuilder();
@@ -84,7 +108,10 @@ public class TableFileParser {
       List<String> headers = SPLITTER.splitToList(headerRow);
       builder.addAllColumns(headers);
 
-      lines.forEach(line -> parseLine(builder, headers, line));
+      int roll = 1;
+      for (String line : lines) {
+        roll = parseLine(builder, headers, line, roll);
+      }
       // only return a table for .txt files if the json file did not also
       // already exist to be read separately
       if (updateResourceFiles(file, builder)) {
@@ -94,6 +121,7 @@ public class TableFileParser {
       return null;
     } catch (IOException e) {
       log.error(String.format(PARSE_ERROR, file.toString(), e.toString()), e);
+      parseErrors.increment();
       return null;
     }
   }
@@ -115,21 +143,66 @@ public class TableFileParser {
     return isNew;
   }
 
+  /**
+   * Reads only the name of the table in {@param file}, which is the name {@link #parseFile} gives
+   * it: a json table's "name" field, usually its first, or else the name {@link #tableName}
+   * derives from a text table's file name.
+   *
+   * @return The table's name, or null if the file could not be read.
+   */
+  public String readName(Path file) {
+    if (!file.getFileName().toString().endsWith(EXT_JSON)) {
+      return tableName(file);
+    }
+    try (JsonReader json = new JsonReader(Files.newBufferedReader(file, UTF_8))) {
+      json.setLenient(true);
+      json.beginObject();
+      while (json.hasNext()) {
+        if (json.nextName().equals("name")) {
+          return json.nextString();
+        }
+        json.skipValue();
+      }
+      return "";
+    } catch (IOException | IllegalStateException e) {
+      log.error(String.format(PARSE_ERROR, file.toString(), e.toString()), e);
+      parseErrors.increment();
+      return null;
+    }
+  }
+
   private void setTableName(Path file, RPTable.Builder builder) {
-    String filename = file.getFileName().toString().replace(EXT_TXT, "")
+    builder.setName(tableName(file));
+  }
+
+  /**
+   * Derives a table's name from its file name, i.e. "05LevelFive.txt" -> "Level Five". Tables
+   * converted from text files keep this name in their json.
+   *
+   * @param file Table text or json file.
+   * @return Name of the table in the file.
+   */
+  public static String tableName(Path file) {
+    String filename = file.getFileName().toString().replace(EXT_TXT, "").replace(EXT_JSON, "")
                           .replaceAll("^[0-9]*", "");
     Matcher wordBreak = WORD_BREAK_PATTERN.matcher(filename);
     while (wordBreak.find()) {
       filename = filename.replace(wordBreak.group(0),
                                   wordBreak.group(1) + " " + wordBreak.group(2));
     }
-    builder.setName(filename);
+    return filename;
   }
 
-  private void parseLine(RPTable.Builder builder, List<String> columns,
-                         String line) {
+  /**
+   * Adds the entry on {@param line} to the table.
+   *
+   * @param roll The lowest roll not yet taken by an earlier entry.
+   * @return The lowest roll not taken once this entry is added.
+   */
+  private int parseLine(RPTable.Builder builder, List<String> columns,
+                        String line, int roll) {
     if (line.isEmpty()) {
-      return;
+      return roll;
     }
     List<String> values = Lists.newArrayList(SPLITTER.splitToList(line));
     Matcher matcher = ROLL_PATTERN.matcher(values.get(0));
@@ -145,6 +218,8 @@ public class TableFileParser {
     roll += weight;
     builder.setMaxRoll(roll);
     entryBuilder.addAllValues(values);
+    builder.addEntries(entryBuilder);
+    return roll;
   }
 
   private int getEntryWeight(Matcher matcher) {
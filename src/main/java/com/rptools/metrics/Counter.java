@@ -0,0 +1,45 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up, cheap to increment from many threads at once.
+ */
+public final class Counter {
+
+  private final LongAdder count = new LongAdder();
+
+  Counter() {
+  }
+
+  public void increment() {
+    count.increment();
+  }
+
+  public void add(long amount) {
+    count.add(amount);
+  }
+
+  public long get() {
+    return count.sum();
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Getter;
+
+/**
+ * Distribution of non-negative values, usually latencies in nanoseconds. Values are counted in
+ * log-linear buckets (each power of two split into four), so recording is a few atomic adds with
+ * no allocation, and percentiles are accurate to within a quarter of their power of two.
+ */
+public final class Histogram {
+
+  private static final int SUB_BITS = 2;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  private static final int BUCKETS = (Long.SIZE - SUB_BITS) << SUB_BITS;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  Histogram() {
+  }
+
+  /**
+   * Records {@param value}; negative values are recorded as zero.
+   */
+  public void record(long value) {
+    value = Math.max(0, value);
+    buckets.incrementAndGet(bucket(value));
+    count.increment();
+    sum.add(value);
+    long current = max.get();
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
+  }
+
+  /**
+   * Records the nanoseconds elapsed since {@param startNanos}, taken from {@link
+   * System#nanoTime()}.
+   */
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  public Snapshot snapshot() {
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+      total += counts[i];
+    }
+    long highest = max.get();
+    return new Snapshot(total, total == 0 ? 0 : sum.sum() / total,
+                        percentile(counts, total, .5, highest),
+                        percentile(counts, total, .9, highest),
+                        percentile(counts, total, .99, highest),
+                        highest);
+  }
+
+  private static long percentile(long[] counts, long total, double quantile, long max) {
+    long rank = (long) Math.ceil(total * quantile);
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank && seen > 0) {
+        // upper end of the bucket, which is never more than the largest value recorded
+        long upper = i + 1 < BUCKETS ? lowerBound(i + 1) - 1 : Long.MAX_VALUE;
+        return Math.min(upper, max);
+      }
+    }
+    return 0;
+  }
+
+  private static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return ((exponent - SUB_BITS + 1) << SUB_BITS) + sub;
+  }
+
+  private static long lowerBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = (bucket >> SUB_BITS) + SUB_BITS - 1;
+    long sub = bucket & (SUB_BUCKETS - 1);
+    return (1L << exponent) | (sub << (exponent - SUB_BITS));
+  }
+
+  /**
+   * Point-in-time view of a {@link Histogram}. Recording while a snapshot is taken may leave it a
+   * value or two behind, but never inconsistent enough to matter for monitoring.
+   */
+  @Getter
+  public static final class Snapshot {
+
+    private final long count;
+    private final long mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long max;
+
+    private Snapshot(long count, long mean, long p50, long p90, long p99, long max) {
+      this.count = count;
+      this.mean = mean;
+      this.p50 = p50;
+      this.p90 = p90;
+      this.p99 = p99;
+      this.max = max;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("count=%d mean=%dus p50=%dus p90=%dus p99=%dus max=%dus", count,
+                           micros(mean), micros(p50), micros(p90), micros(p99), micros(max));
+    }
+
+    private static long micros(long nanos) {
+      return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+  }
+}
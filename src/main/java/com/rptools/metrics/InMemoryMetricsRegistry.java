@@ -0,0 +1,72 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.metrics;
+
+import com.google.common.collect.Maps;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import lombok.extern.apachecommons.CommonsLog;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@link MetricsRegistry} keeping every metric in memory for the life of the process.
+ */
+@Component
+@CommonsLog
+public class InMemoryMetricsRegistry implements MetricsRegistry {
+
+  private static final String GAUGE_ERROR = "Error reading gauge %s: %s";
+
+  private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+  private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+  private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+  @Override
+  public Counter counter(String name) {
+    return counters.computeIfAbsent(name, key -> new Counter());
+  }
+
+  @Override
+  public Histogram histogram(String name) {
+    return histograms.computeIfAbsent(name, key -> new Histogram());
+  }
+
+  @Override
+  public void gauge(String name, LongSupplier value) {
+    gauges.put(name, value);
+  }
+
+  @Override
+  public SortedMap<String, Object> snapshot() {
+    SortedMap<String, Object> snapshot = Maps.newTreeMap();
+    counters.forEach((name, counter) -> snapshot.put(name, counter.get()));
+    histograms.forEach((name, histogram) -> snapshot.put(name, histogram.snapshot()));
+    gauges.forEach((name, gauge) -> {
+      try {
+        snapshot.put(name, gauge.getAsLong());
+      } catch (RuntimeException e) {
+        log.warn(String.format(GAUGE_ERROR, name, e.toString()));
+      }
+    });
+    return snapshot;
+  }
+}
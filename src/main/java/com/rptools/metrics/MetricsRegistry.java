@@ -0,0 +1,57 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.metrics;
+
+import java.util.SortedMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Named counters, latency histograms and gauges, kept in process so no metrics service is needed.
+ * Asking twice for a metric with the same name returns the same metric, so callers should look
+ * their metrics up once and keep them.
+ *
+ * Names are dot-separated, i.e. "names.generate".
+ */
+public interface MetricsRegistry {
+
+  /**
+   * @return The counter called {@param name}, created at zero if it does not exist yet.
+   */
+  Counter counter(String name);
+
+  /**
+   * @return The histogram called {@param name}, created empty if it does not exist yet.
+   */
+  Histogram histogram(String name);
+
+  /**
+   * Registers a gauge, replacing any earlier gauge with the same name.
+   *
+   * @param name Gauge name.
+   * @param value Called for the current value whenever a snapshot is taken.
+   */
+  void gauge(String name, LongSupplier value);
+
+  /**
+   * @return Every metric by name: a {@link Long} for counters and gauges, and a {@link
+   * Histogram.Snapshot} for histograms.
+   */
+  SortedMap<String, Object> snapshot();
+}
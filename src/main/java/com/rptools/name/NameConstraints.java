@@ -0,0 +1,74 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rptools.name;
+
+import java.util.Locale;
+import lombok.Getter;
+
+/**
+ * Restrictions on a generated name: a prefix it must start with (a single letter for "starting
+ * with K") and the range of lengths it may have. Instances are immutable; the with* methods return
+ * copies.
+ */
+@Getter
+public final class NameConstraints {
+
+  /**
+   * Longest name length that can be asked for.
+   */
+  public static final int MAX_LENGTH = 63;
+  public static final NameConstraints NONE = new NameConstraints("", 1, MAX_LENGTH);
+
+  private final String prefix;
+  private final int minLength;
+  private final int maxLength;
+
+  private NameConstraints(String prefix, int minLength, int maxLength) {
+    this.prefix = prefix;
+    this.minLength = minLength;
+    this.maxLength = maxLength;
+  }
+
+  /**
+   * @return Copy of these constraints requiring names to start with {@param prefix}, ignoring
+   * case.
+   */
+  public NameConstraints withPrefix(String prefix) {
+    return new NameConstraints(prefix.toUpperCase(Locale.ROOT), minLength, maxLength);
+  }
+
+  /**
+   * @return Copy of these constraints requiring names of {@param min} to {@param max} letters,
+   * inclusive. Bounds are clamped to [1, {@link #MAX_LENGTH}].
+   */
+  public NameConstraints withLength(int min, int max) {
+    return new NameConstraints(prefix, Math.max(1, min), Math.min(MAX_LENGTH, max));
+  }
+
+  /**
+   * @return Bit mask with bit n set for every allowed length n.
+   */
+  long lengthMask() {
+    if (minLength > maxLength) {
+      return 0;
+    }
+    long upTo = maxLength == MAX_LENGTH ? -1L : (1L << (maxLength + 1)) - 1;
+    return upTo & -(1L << minLength);
+  }
+}
@@ -18,53 +18,461 @@
 
 package com.rptools.name;
 
-import com.google.common.base.Joiner;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.Lists;
 
+import com.rptools.city.City.Species;
+import com.rptools.io.DataFileListener;
 import com.rptools.io.NameFileParser;
+import com.rptools.metrics.Counter;
+import com.rptools.metrics.Histogram;
+import com.rptools.metrics.MetricsRegistry;
+import com.rptools.util.RandomSource;
+import com.rptools.util.Readiness;
+import com.rptools.util.StartupExecutor;
 
 import lombok.extern.apachecommons.CommonsLog;
 
-import org.apache.commons.lang3.text.WordUtils;
+import org.reactivestreams.Publisher;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.annotation.PreDestroy;
 
 /**
  * Helper component that generates names from the {@link Names} object returned by {@link
  * NameFileParser}
+ *
+ * Setting rptools.names.prefetch.capacity keeps that many names generated ahead by background
+ * threads (rptools.names.prefetch.threads, default 1), refilled once fewer than
+ * rptools.names.prefetch.refill (default half the capacity) are left.
+ *
+ * Generation is timed in the "names.generate" histogram and counted in "names.generated"; the
+ * "names.first.states" and "names.last.states" gauges give the size of each Markov model.
+ *
+ * Both name models are trained concurrently on the {@link StartupExecutor}; generating names waits
+ * until they are loaded.
+ *
+ * Species can have their own names in /data/species/[Species]/names.txt and lastNames.txt, loaded
+ * the first time {@link #forSpecies} asks for them; a species without one of the files uses the
+ * common model for it. Every model shares the {@link NameFileParser}'s segment dictionary.
+ *
+ * Names rated by users can be trained into the common models with {@link #train} while names are
+ * being generated, counted in "names.trained". Trained names last until the name file is reloaded.
+ * Names for a {@link NameAttribute} come from the models' overlays for it, loaded from files like
+ * names.noble.txt next to each name file and grown by training names tagged with it.
  */
 @Component
 @CommonsLog
-public class NameGen {
+public class NameGen implements DataFileListener, Readiness {
 
-  private static final Joiner JOINER = Joiner.on(" ");
   private static final String PARSED_TIME = "Name data parsed in %d milliseconds.";
-  private final Names first;
-  private final Names last;
+  private static final String RELOADED = "Reloaded name file %s.";
+  private static final String LOAD_ERROR = "Could not load name file %s.";
+  private static final String FIRST_NAMES = "names.txt";
+  private static final String LAST_NAMES = "lastNames.txt";
+  private static final String SPECIES_DIR = "species";
+  private static final String SPECIES_FILE = SPECIES_DIR + "/%s/%s";
+  private static final String SPECIES_LOADED = "Loaded %s names.";
+  private static final String PREFETCH_CAPACITY = "rptools.names.prefetch.capacity";
+  private static final String PREFETCH_REFILL = "rptools.names.prefetch.refill";
+  private static final String PREFETCH_THREADS = "rptools.names.prefetch.threads";
+  private final NameFileParser nameFileParser;
+  // swapped whole when a name file is reloaded
+  private volatile NameSet names;
+  // by species ordinal, filled on first use and dropped when any name file is reloaded
+  private volatile AtomicReferenceArray<NameSet> species = newSpeciesNames();
+  private final AtomicLong revision = new AtomicLong();
+  private final NamePrefetcher prefetcher;
+  private final Histogram generateTime;
+  private final Counter generated;
+  private final Counter trained;
+  private final CompletableFuture<Void> ready;
 
   @Autowired
-  public NameGen(NameFileParser nameFileParser) {
+  public NameGen(NameFileParser nameFileParser, Environment environment, MetricsRegistry metrics,
+                 StartupExecutor startup) {
+    this.nameFileParser = nameFileParser;
     Stopwatch timer = Stopwatch.createStarted();
-    first = nameFileParser.parseFile("names.txt");
-    last = nameFileParser.parseFile("lastNames.txt");
-    timer.stop();
-    log.info(String.format(PARSED_TIME, timer.elapsed(TimeUnit.MILLISECONDS)));
+    CompletableFuture<Names> firstLoad = startup.supply(() -> load(FIRST_NAMES));
+    CompletableFuture<Names> lastLoad = startup.supply(() -> load(LAST_NAMES));
+    ready = firstLoad.thenAcceptBoth(lastLoad, (firstNames, lastNames) -> {
+      names = new NameSet(firstNames, lastNames);
+      timer.stop();
+      log.info(String.format(PARSED_TIME, timer.elapsed(TimeUnit.MILLISECONDS)));
+    });
+    generateTime = metrics.histogram("names.generate");
+    generated = metrics.counter("names.generated");
+    trained = metrics.counter("names.trained");
+    metrics.gauge("names.first.states",
+                  () -> names == null ? 0 : names.getFirst().getModel().stateCount());
+    metrics.gauge("names.last.states",
+                  () -> names == null ? 0 : names.getLast().getModel().stateCount());
+    metrics.gauge("names.segments",
+                  () -> names == null ? 0 : names.getFirst().getModel().getDictionary().size());
+
+    int capacity = environment.getProperty(PREFETCH_CAPACITY, Integer.class, 0);
+    if (capacity > 0) {
+      prefetcher = new NamePrefetcher(this::prefetchName,
+                                      revision::get,
+                                      capacity,
+                                      environment.getProperty(PREFETCH_REFILL, Integer.class,
+                                                              capacity / 2),
+                                      environment.getProperty(PREFETCH_THREADS, Integer.class, 1));
+    } else {
+      prefetcher = null;
+    }
+  }
+
+  @Override
+  public CompletableFuture<Void> getReady() {
+    return ready;
+  }
+
+  private Names load(String fileName) {
+    Names names = nameFileParser.parseFile(fileName);
+    if (names == null) {
+      throw new IllegalStateException(String.format(LOAD_ERROR, fileName));
+    }
+    return names;
+  }
+
+  /**
+   * Retrains the first or last name model when its file or one of its attribute overlays changes,
+   * and swaps it in once trained. Species names are dropped and loaded again on next use. Changes
+   * wait for the names to finish loading.
+   */
+  @Override
+  public void dataFileChanged(Path file, boolean deleted) {
+    String changed = file.getFileName().toString();
+    String fileName = dataFileName(changed);
+    if (!(fileName.equals(FIRST_NAMES) || fileName.equals(LAST_NAMES))) {
+      return;
+    }
+    // the first load must finish first, or it would overwrite the reloaded names
+    ready.join();
+    Path speciesDir = file.getParent() == null ? null : file.getParent().getParent();
+    if (speciesDir != null && speciesDir.getFileName() != null
+        && speciesDir.getFileName().toString().equals(SPECIES_DIR)) {
+      species = newSpeciesNames();
+      revision.incrementAndGet();
+      log.info(String.format(RELOADED, file));
+      return;
+    }
+    // a deleted overlay still leaves its data file to reload
+    Names reloaded = deleted && changed.equals(fileName) ? null
+                                                         : nameFileParser.parseFile(fileName);
+    if (reloaded == null) {
+      return;
+    }
+    NameSet current = names;
+    names = fileName.equals(FIRST_NAMES) ? new NameSet(reloaded, current.getLast())
+                                         : new NameSet(current.getFirst(), reloaded);
+    species = newSpeciesNames();
+    revision.incrementAndGet();
+    log.info(String.format(RELOADED, fileName));
+  }
+
+  /**
+   * @return The names for {@param race}, loading them the first time; the common names if the
+   * species has no name files.
+   */
+  public NameSet forSpecies(Species race) {
+    ready.join();
+    AtomicReferenceArray<NameSet> loaded = species;
+    NameSet found = loaded.get(race.ordinal());
+    return found != null ? found : loadSpecies(loaded, race);
+  }
+
+  /**
+   * @return The common names, used for anyone whose species is unknown.
+   */
+  public NameSet getNames() {
+    ready.join();
+    return names;
+  }
+
+  /**
+   * Trains {@param name}, i.e. "First Last", into the common first and last name models with
+   * weight {@param weight}, tagged with {@param attribute}. A name without a space only trains the
+   * first name model.
+   */
+  public void train(String name, double weight, NameAttribute attribute) {
+    ready.join();
+    NameSet current = names;
+    String trimmed = name.trim();
+    int space = trimmed.indexOf(' ');
+    if (space < 0) {
+      current.getFirst().train(trimmed, weight, attribute);
+    } else {
+      current.getFirst().train(trimmed.substring(0, space), weight, attribute);
+      current.getLast().train(trimmed.substring(space + 1).trim(), weight, attribute);
+    }
+    revision.incrementAndGet();
+    trained.increment();
+  }
+
+  /**
+   * @return A number that changes, after the fact, whenever the names generated for a seed may
+   * have changed: when a name file is reloaded or names are trained.
+   */
+  public long getRevision() {
+    return revision.get();
+  }
+
+  private synchronized NameSet loadSpecies(AtomicReferenceArray<NameSet> loaded, Species race) {
+    NameSet found = loaded.get(race.ordinal());
+    if (found == null) {
+      NameSet common = names;
+      Names first = loadSpeciesFile(race, FIRST_NAMES);
+      Names last = loadSpeciesFile(race, LAST_NAMES);
+      found = first == null && last == null
+              ? common
+              : new NameSet(first == null ? common.getFirst() : first,
+                            last == null ? common.getLast() : last);
+      loaded.set(race.ordinal(), found);
+      if (found != common) {
+        log.info(String.format(SPECIES_LOADED, race));
+      }
+    }
+    return found;
+  }
+
+  private Names loadSpeciesFile(Species race, String fileName) {
+    String speciesFile = String.format(SPECIES_FILE, race.name(), fileName);
+    return nameFileParser.hasFile(speciesFile) ? nameFileParser.parseFile(speciesFile) : null;
+  }
+
+  /**
+   * @return The name file {@param fileName} is an attribute overlay of, or {@param fileName}.
+   */
+  private static String dataFileName(String fileName) {
+    for (NameAttribute attribute : NameAttribute.values()) {
+      if (fileName.equals(NameFileParser.overlayFile(FIRST_NAMES, attribute))) {
+        return FIRST_NAMES;
+      }
+      if (fileName.equals(NameFileParser.overlayFile(LAST_NAMES, attribute))) {
+        return LAST_NAMES;
+      }
+    }
+    return fileName;
+  }
+
+  private static AtomicReferenceArray<NameSet> newSpeciesNames() {
+    return new AtomicReferenceArray<>(Species.values().length);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (prefetcher != null) {
+      prefetcher.close();
+    }
   }
 
   public List<String> generateNames(int numNames) {
+    return generateNames(numNames, RandomSource.threadLocal());
+  }
+
+  /**
+   * Generates {@param numNames} names that are the same every time for the same {@param seed}.
+   */
+  public List<String> generateNames(int numNames, long seed) {
+    return generateNames(numNames, RandomSource.seeded(seed));
+  }
+
+  public List<String> generateNames(int numNames, NameAttribute attribute) {
+    return generateNames(numNames, attribute, RandomSource.threadLocal());
+  }
+
+  /**
+   * Generates {@param numNames} names with {@param attribute}, drawing every random choice from
+   * {@param random}. Names come straight from the models' overlays for the attribute, so they cost
+   * the same as any other name; without an overlay they are ordinary names.
+   */
+  public List<String> generateNames(int numNames, NameAttribute attribute, RandomSource random) {
+    ready.join();
+    long start = System.nanoTime();
+    NameSet current = this.names;
+    List<String> names = Lists.newArrayListWithCapacity(numNames);
+    for (int i = 0; i < numNames; i++) {
+      names.add(current.makeName(attribute, random));
+    }
+    record(start, names);
+    return names;
+  }
+
+  /**
+   * Generates {@param numNames} names, drawing every random choice from {@param random}. Names
+   * for the unseeded {@link RandomSource#threadLocal()} are taken from the prefetch buffer when it
+   * is enabled and has any ready.
+   */
+  public List<String> generateNames(int numNames, RandomSource random) {
+    ready.join();
+    long start = System.nanoTime();
+    boolean prefetched = prefetcher != null && random == RandomSource.threadLocal();
     List<String> names = Lists.newArrayList();
     while (numNames-- > 0) {
-      String name = makeName();
+      String name = prefetched ? prefetcher.poll() : null;
+      if (name == null) {
+        name = makeName(random);
+      }
       names.add(name);
     }
+    record(start, names);
     return names;
   }
 
-  private String makeName() {
-    return WordUtils.capitalizeFully(JOINER.join(first.makeName(), last.makeName()));
+  /**
+   * Lazily generates {@param numNames} names as the stream is consumed, so memory use does not
+   * grow with the number of names. The stream can be made parallel.
+   */
+  public Stream<String> streamNames(long numNames) {
+    return streamNames(numNames, RandomSource.threadLocal());
+  }
+
+  /**
+   * Lazily generates {@param numNames} names, drawing every random choice from {@param random} or
+   * from its splits in a parallel stream. A sequential stream from a seeded source gives the same
+   * names every time.
+   */
+  public Stream<String> streamNames(long numNames, RandomSource random) {
+    ready.join();
+    return StreamSupport.stream(new NameSpliterator(this::streamName, numNames, random), false);
+  }
+
+  /**
+   * Publishes {@param numNames} names to each subscriber, generating them only as the subscriber
+   * requests them.
+   */
+  public Publisher<String> publishNames(long numNames) {
+    ready.join();
+    return new NamePublisher(this::streamName, numNames, RandomSource::threadLocal);
+  }
+
+  /**
+   * Publishes the same {@param numNames} names to every subscriber for the same {@param seed},
+   * generating them only as the subscriber requests them.
+   */
+  public Publisher<String> publishNames(long numNames, long seed) {
+    ready.join();
+    return new NamePublisher(this::streamName, numNames, () -> RandomSource.seeded(seed));
+  }
+
+  /**
+   * Appends {@param numNames} names to {@param out}, each followed by {@param separator}, without
+   * making a {@link String} per name. A {@link StringBuilder} or {@link CharBuffer} is written to
+   * directly; any other {@link Appendable} gets each name as one {@link CharSequence}.
+   *
+   * @throws IOException If {@param out} does.
+   * @throws java.nio.BufferOverflowException If {@param out} is a {@link CharBuffer} that fills.
+   */
+  public void appendNames(int numNames, CharSequence separator, Appendable out,
+                          RandomSource random) throws IOException {
+    ready.join();
+    long start = System.nanoTime();
+    StringBuilder name = out instanceof StringBuilder ? (StringBuilder) out
+                                                      : NameSet.NAME_BUFFER.get();
+    for (int i = 0; i < numNames; i++) {
+      if (name != out) {
+        name.setLength(0);
+      }
+      appendName(name, random);
+      name.append(separator);
+      if (name != out) {
+        write(name, out);
+      }
+    }
+    generateTime.recordSince(start);
+    generated.add(numNames);
+  }
+
+  /**
+   * Generates {@param numNames} names whose first names meet {@param constraints}, i.e. "starting
+   * with K" or "between 4 and 8 letters". Each name is generated once, never retried.
+   *
+   * @return The names, or an empty list if no first name in the data can meet the constraints.
+   */
+  public List<String> generateNames(int numNames, NameConstraints constraints) {
+    return generateNames(numNames, constraints, NameConstraints.NONE, RandomSource.threadLocal());
+  }
+
+  /**
+   * Generates {@param numNames} names whose first and last names meet {@param firstConstraints}
+   * and {@param lastConstraints}, drawing every random choice from {@param random}.
+   *
+   * @return The names, or an empty list if the data cannot meet the constraints.
+   */
+  public List<String> generateNames(int numNames, NameConstraints firstConstraints,
+                                    NameConstraints lastConstraints, RandomSource random) {
+    ready.join();
+    long start = System.nanoTime();
+    NameSet current = this.names;
+    List<String> names = Lists.newArrayList();
+    while (numNames-- > 0) {
+      Optional<String> firstName = current.getFirst().makeName(firstConstraints, random);
+      Optional<String> lastName = current.getLast().makeName(lastConstraints, random);
+      if (!firstName.isPresent() || !lastName.isPresent()) {
+        names.clear();
+        break;
+      }
+      StringBuilder name = NameSet.NAME_BUFFER.get();
+      name.setLength(0);
+      NameModel.appendCapitalized(firstName.get(), name);
+      name.append(' ');
+      NameModel.appendCapitalized(lastName.get(), name);
+      names.add(name.toString());
+    }
+    record(start, names);
+    return names;
+  }
+
+  private String streamName(RandomSource random) {
+    generated.increment();
+    return makeName(random);
+  }
+
+  private void record(long start, List<String> names) {
+    generateTime.recordSince(start);
+    generated.add(names.size());
+  }
+
+  /**
+   * Prefetch workers start right away, but their first names wait for the models.
+   */
+  private String prefetchName() {
+    ready.join();
+    return makeName(RandomSource.threadLocal());
+  }
+
+  private String makeName(RandomSource random) {
+    return names.makeName(random);
+  }
+
+  private void appendName(StringBuilder out, RandomSource random) {
+    names.appendName(out, random);
+  }
+
+  private static void write(CharSequence name, Appendable out) throws IOException {
+    if (out instanceof CharBuffer) {
+      CharBuffer chars = (CharBuffer) out;
+      for (int i = 0; i < name.length(); i++) {
+        chars.put(name.charAt(i));
+      }
+    } else {
+      out.append(name);
+    }
   }
 }
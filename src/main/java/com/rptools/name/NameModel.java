@@ -0,0 +1,831 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rptools.name;
+
+import static com.rptools.name.SegmentDictionary.BOUNDARY;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Queues;
+import com.rptools.util.RandomSource;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Markov chain over name segments, a segment being a run of vowels or consonants. I.E. "LIERGAARD"
+ * -> "L" -> "IE" -> "RG" -> "AA" -> "RD".
+ *
+ * Segments are interned to ids by a {@link SegmentDictionary}, and a state is the last few segment
+ * ids of the name so far. Each state is compiled to a {@link Row} of primitive arrays holding the
+ * possible next segments, their cumulative weights, and the row to move to after each one, so
+ * generating a name walks arrays with no hashing or boxing.
+ */
+public final class NameModel {
+
+  public static final int MIN_DEPTH = 2;
+  public static final int MAX_DEPTH = 3;
+  // bump whenever the snapshot layout or its meaning changes
+  public static final int SNAPSHOT_FORMAT = 1;
+  static final int SEGMENT_BITS = 21;
+  static final int MAX_SEGMENT_ID = (1 << SEGMENT_BITS) - 1;
+  // the chain can cycle, so stop walking after this many segments
+  static final int MAX_NAME_SEGMENTS = 32;
+  private static final String VOWELS = "AEIOUY";
+  private static final String TOO_MANY_SEGMENTS = "Name data has more than %d distinct segments.";
+
+  private final SegmentDictionary dictionary;
+  // rows for each look-behind depth, indexed by depth - MIN_DEPTH; row 0 is the start state
+  private final Rows[] depths;
+  private final int stateCount;
+  // per depth, built on first use: bit n of reach[row] is set if a name can end n letters later
+  private final AtomicReferenceArray<long[]> reachable;
+  // the row of each state key, shared with the models trained from this one; built when first
+  // trained unless this model was itself trained
+  private volatile RowIndex rowIndex;
+
+  private NameModel(SegmentDictionary dictionary, Rows[] depths, int stateCount) {
+    this.dictionary = dictionary;
+    this.depths = depths;
+    this.stateCount = stateCount;
+    reachable = new AtomicReferenceArray<>(depths.length);
+  }
+
+  /**
+   * Creates a model from freshly compiled {@param depths}, sharing their arrays through {@param
+   * dictionary}.
+   */
+  private static NameModel shared(SegmentDictionary dictionary, Row[][] depths) {
+    Rows[] shared = new Rows[depths.length];
+    int stateCount = 0;
+    for (int d = 0; d < depths.length; d++) {
+      Row[] rows = depths[d];
+      for (int i = 0; i < rows.length; i++) {
+        if (rows[i] != null) {
+          rows[i] = new Row(dictionary.share(rows[i].segments), dictionary.share(rows[i].weights),
+                            dictionary.share(rows[i].cumulative),
+                            dictionary.share(rows[i].successors));
+          stateCount++;
+        }
+      }
+      shared[d] = Rows.of(rows);
+    }
+    return new NameModel(dictionary, shared, stateCount);
+  }
+
+  /**
+   * Creates a {@link Builder} that interns segments into {@param dictionary}.
+   */
+  public static Builder builder(SegmentDictionary dictionary) {
+    return new Builder(dictionary);
+  }
+
+  SegmentDictionary getDictionary() {
+    return dictionary;
+  }
+
+  /**
+   * @return Total number of states across all look-behind depths.
+   */
+  public int stateCount() {
+    return stateCount;
+  }
+
+  /**
+   * @return Total weight of the names this model was trained from, which is the weight leaving its
+   * start state.
+   */
+  public double totalWeight() {
+    double total = 0;
+    if (depths[0].size() > 0) {
+      for (double weight : depths[0].get(0).weights) {
+        total += weight;
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Walks the chain for look-behind {@param depth}, clamped to [{@link #MIN_DEPTH}, {@link
+   * #MAX_DEPTH}].
+   *
+   * @return The generated name, in the letter case of the source data.
+   */
+  String generate(int depth, RandomSource random) {
+    Rows rows = rows(depth);
+    StringBuilder name = new StringBuilder();
+    if (rows.size() == 0) {
+      return "";
+    }
+    Row row = rows.get(0);
+    for (int i = 0; i < MAX_NAME_SEGMENTS; i++) {
+      int pick = row.pick(random.nextFloat() * row.total());
+      int segment = row.segments[pick];
+      if (segment == BOUNDARY) {
+        break;
+      }
+      name.append(dictionary.segment(segment));
+      row = rows.get(row.successors[pick]);
+    }
+    return name.toString();
+  }
+
+  /**
+   * Walks the chain like {@link #generate(int, RandomSource)}, but appends the name to {@param out}
+   * with its first letter capitalized and the rest lower case, without making a {@link String}.
+   */
+  void appendName(int depth, RandomSource random, StringBuilder out) {
+    Rows rows = rows(depth);
+    if (rows.size() == 0) {
+      return;
+    }
+    int start = out.length();
+    Row row = rows.get(0);
+    for (int i = 0; i < MAX_NAME_SEGMENTS; i++) {
+      int pick = row.pick(random.nextFloat() * row.total());
+      int segment = row.segments[pick];
+      if (segment == BOUNDARY) {
+        break;
+      }
+      appendLowerCase(dictionary.segment(segment), out);
+      row = rows.get(row.successors[pick]);
+    }
+    capitalize(out, start);
+  }
+
+  /**
+   * Appends {@param word} to {@param out} with its first letter capitalized and the rest lower
+   * case, as {@link org.apache.commons.lang3.text.WordUtils#capitalizeFully} would for one word.
+   */
+  static void appendCapitalized(CharSequence word, StringBuilder out) {
+    int start = out.length();
+    appendLowerCase(word, out);
+    capitalize(out, start);
+  }
+
+  private static void appendLowerCase(CharSequence text, StringBuilder out) {
+    for (int i = 0; i < text.length(); i++) {
+      out.append(Character.toLowerCase(text.charAt(i)));
+    }
+  }
+
+  private static void capitalize(StringBuilder out, int index) {
+    if (index < out.length()) {
+      out.setCharAt(index, Character.toTitleCase(out.charAt(index)));
+    }
+  }
+
+  /**
+   * Saves this model as a {@link NameModelSnapshot}. Segments are renumbered so only the ones this
+   * model uses are written.
+   *
+   * @param checksum Checksum of the data the model was trained from.
+   */
+  public NameModelSnapshot toSnapshot(long checksum) {
+    NameModelSnapshot.Builder snapshot = NameModelSnapshot.newBuilder()
+                                                          .setFormat(SNAPSHOT_FORMAT)
+                                                          .setChecksum(checksum)
+                                                          .setMinDepth(MIN_DEPTH)
+                                                          .addSegments(dictionary.segment(BOUNDARY));
+    Map<Integer, Integer> snapshotIds = Maps.newHashMap();
+    snapshotIds.put(BOUNDARY, BOUNDARY);
+    for (Rows rows : depths) {
+      NameModelSnapshot.Depth.Builder depth = snapshot.addDepthsBuilder();
+      for (int r = 0; r < rows.size(); r++) {
+        // a state only other models have is saved as a row with no transitions
+        Row row = rows.get(r);
+        NameModelSnapshot.Row.Builder saved = depth.addRowsBuilder();
+        for (int i = 0; row != null && i < row.segments.length; i++) {
+          Integer id = snapshotIds.get(row.segments[i]);
+          if (id == null) {
+            id = snapshot.getSegmentsCount();
+            snapshotIds.put(row.segments[i], id);
+            snapshot.addSegments(dictionary.segment(row.segments[i]));
+          }
+          saved.addSegments(id).addWeights(row.weights[i]).addSuccessors(row.successors[i]);
+        }
+      }
+    }
+    return snapshot.build();
+  }
+
+  /**
+   * Loads a model saved by {@link #toSnapshot}, interning its segments into {@param dictionary}.
+   *
+   * @return The loaded model, or empty if the snapshot was saved with different depths.
+   */
+  public static Optional<NameModel> fromSnapshot(NameModelSnapshot snapshot,
+                                                 SegmentDictionary dictionary) {
+    if (snapshot.getMinDepth() != MIN_DEPTH
+        || snapshot.getDepthsCount() != MAX_DEPTH - MIN_DEPTH + 1) {
+      return Optional.empty();
+    }
+    int[] ids = new int[snapshot.getSegmentsCount()];
+    for (int i = 1; i < ids.length; i++) {
+      String segment = snapshot.getSegments(i);
+      ids[i] = dictionary.intern(segment, 0, segment.length());
+    }
+    Row[][] depths = new Row[snapshot.getDepthsCount()][];
+    for (int d = 0; d < depths.length; d++) {
+      NameModelSnapshot.Depth depth = snapshot.getDepths(d);
+      depths[d] = new Row[depth.getRowsCount()];
+      for (int r = 0; r < depths[d].length; r++) {
+        NameModelSnapshot.Row saved = depth.getRows(r);
+        int size = saved.getSegmentsCount();
+        if (size == 0) {
+          continue;
+        }
+        int[] segments = new int[size];
+        double[] weights = new double[size];
+        int[] successors = new int[size];
+        for (int i = 0; i < size; i++) {
+          segments[i] = ids[saved.getSegments(i)];
+          weights[i] = saved.getWeights(i);
+          successors[i] = saved.getSuccessors(i);
+        }
+        depths[d][r] = Row.of(segments, weights, successors);
+      }
+    }
+    return Optional.of(shared(dictionary, depths));
+  }
+
+  /**
+   * Walks the chain for look-behind {@param depth}, taking only transitions that keep the name
+   * consistent with {@param constraints}. The prefix is matched segment by segment, and each step
+   * is limited to transitions from which a name of an allowed length can still be finished, in
+   * proportion to their trained weights. The walk never dead-ends, so it never has to be retried.
+   *
+   * @return The generated name, or empty if no name at this depth meets the constraints.
+   */
+  Optional<String> generate(int depth, NameConstraints constraints, RandomSource random) {
+    Rows rows = rows(depth);
+    if (rows.size() == 0) {
+      return Optional.empty();
+    }
+    long[] reach = reach(depth);
+    long lengths = constraints.lengthMask();
+    String prefix = constraints.getPrefix();
+    StringBuilder name = new StringBuilder();
+    Row row = rows.get(0);
+
+    for (int start = 0; start < prefix.length(); ) {
+      int end = segmentEnd(prefix, start, prefix.length());
+      int pick = pickAllowed(row, reach, lengths, name.length(), prefix, start, end, random);
+      if (pick < 0) {
+        return Optional.empty();
+      }
+      name.append(dictionary.segment(row.segments[pick]));
+      row = rows.get(row.successors[pick]);
+      start = end;
+    }
+    for (int i = 0; i <= NameConstraints.MAX_LENGTH; i++) {
+      int pick = pickAllowed(row, reach, lengths, name.length(), null, 0, 0, random);
+      if (pick < 0) {
+        return Optional.empty();
+      }
+      if (row.segments[pick] == BOUNDARY) {
+        return Optional.of(name.toString());
+      }
+      name.append(dictionary.segment(row.segments[pick]));
+      row = rows.get(row.successors[pick]);
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Picks a transition from {@param row} by weight among those that can still lead to a name with
+   * a length in {@param lengths}. When {@param prefix} is given, the transition's segment must also
+   * match prefix[start, end): exactly if more of the prefix follows, or by starting with it if this
+   * is the end of the prefix.
+   *
+   * @return Index of the picked transition, or -1 if none are allowed.
+   */
+  private int pickAllowed(Row row, long[] reach, long lengths, int length, String prefix,
+                          int start, int end, RandomSource random) {
+    float total = 0;
+    for (int i = 0; i < row.segments.length; i++) {
+      if (allowed(row, i, reach, lengths, length, prefix, start, end)) {
+        total += row.weight(i);
+      }
+    }
+    if (total <= 0) {
+      return -1;
+    }
+    float target = random.nextFloat() * total;
+    int pick = -1;
+    for (int i = 0; i < row.segments.length; i++) {
+      if (allowed(row, i, reach, lengths, length, prefix, start, end)) {
+        pick = i;
+        target -= row.weight(i);
+        if (target < 0) {
+          break;
+        }
+      }
+    }
+    return pick;
+  }
+
+  private boolean allowed(Row row, int index, long[] reach, long lengths, int length,
+                          String prefix, int start, int end) {
+    int segment = row.segments[index];
+    if (segment == BOUNDARY) {
+      return prefix == null && ((lengths >>> length) & 1L) != 0;
+    }
+    String text = dictionary.segment(segment);
+    if (prefix != null) {
+      boolean lastPiece = end == prefix.length();
+      if (text.length() < end - start || (!lastPiece && text.length() != end - start)
+          || !text.regionMatches(0, prefix, start, end - start)) {
+        return false;
+      }
+    }
+    int after = length + text.length();
+    return after <= NameConstraints.MAX_LENGTH
+           && ((reach[row.successors[index]] << after) & lengths) != 0;
+  }
+
+  private long[] reach(int depth) {
+    int index = depthIndex(depth);
+    long[] reach = reachable.get(index);
+    if (reach == null) {
+      reach = computeReach(depths[index]);
+      reachable.set(index, reach);
+    }
+    return reach;
+  }
+
+  /**
+   * Finds, for every row, the name lengths that can still be added before the name ends. Lengths
+   * only ever get added, so repeating the pass until nothing changes settles even though the chain
+   * has cycles.
+   */
+  private long[] computeReach(Rows rows) {
+    long[] reach = new long[rows.size()];
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int r = rows.size() - 1; r >= 0; r--) {
+        Row row = rows.get(r);
+        if (row == null) {
+          continue;
+        }
+        long mask = reach[r];
+        for (int i = 0; i < row.segments.length; i++) {
+          if (row.segments[i] == BOUNDARY) {
+            mask |= 1L;
+          } else {
+            int length = dictionary.segment(row.segments[i]).length();
+            if (length <= NameConstraints.MAX_LENGTH) {
+              mask |= reach[row.successors[i]] << length;
+            }
+          }
+        }
+        if (mask != reach[r]) {
+          reach[r] = mask;
+          changed = true;
+        }
+      }
+    }
+    return reach;
+  }
+
+  /**
+   * Makes a new model with {@param names} added with their weights, as {@link Builder#process}
+   * would have. This model is left unchanged, so names can still be generated from it while the new
+   * one is made. Only the rows the new names pass through are copied, with their new weights, and
+   * new states are added after them; every other row, and the index of state keys, is shared
+   * between the two models, so training costs as much as the new names and not the whole model.
+   *
+   * Rows keep the exact weights they were trained with, so training again and again adds no
+   * rounding error. Trained rows are not shared through the dictionary, as they are replaced by
+   * further training.
+   */
+  NameModel train(Map<String, Double> names) {
+    RowIndex index = rowIndex();
+    List<Map<Long, RowBuilder>> touched = Lists.newArrayListWithCapacity(depths.length);
+    for (int d = 0; d < depths.length; d++) {
+      touched.add(Maps.newHashMap());
+    }
+    int[] ids = new int[16];
+    Rows[] trained = new Rows[depths.length];
+    int added = 0;
+    synchronized (index) {
+      for (Map.Entry<String, Double> name : names.entrySet()) {
+        String chars = name.getKey();
+        int count = 0;
+        for (int i = 0; i < chars.length(); ) {
+          int end = segmentEnd(chars, i, chars.length());
+          if (count == ids.length) {
+            ids = Arrays.copyOf(ids, count * 2);
+          }
+          ids[count++] = internSegment(dictionary, chars, i, end);
+          i = end;
+        }
+        for (int d = 0; count > 0 && d < depths.length; d++) {
+          Rows rows = depths[d];
+          long key = 0;
+          for (int i = 0; i <= count; i++) {
+            int next = i < count ? ids[i] : BOUNDARY;
+            int row = index.row(d, key);
+            touched.get(d).computeIfAbsent(key, k -> RowBuilder.from(row, rows))
+                      .add(next, name.getValue());
+            key = nextState(key, next, d + MIN_DEPTH);
+          }
+        }
+      }
+
+      for (int d = 0; d < depths.length; d++) {
+        Map<Integer, Row> changed = Maps.newHashMapWithExpectedSize(touched.get(d).size());
+        for (Map.Entry<Long, RowBuilder> state : touched.get(d).entrySet()) {
+          int row = index.row(d, state.getKey());
+          if (row >= depths[d].size() || depths[d].get(row) == null) {
+            added++;
+          }
+          changed.put(row, state.getValue().compile(state.getKey(), d + MIN_DEPTH,
+                                                    index.keys.get(d)));
+        }
+        trained[d] = depths[d].with(changed, index.size(d));
+      }
+    }
+    NameModel model = new NameModel(dictionary, trained, stateCount + added);
+    model.rowIndex = index;
+    return model;
+  }
+
+  private RowIndex rowIndex() {
+    RowIndex index = rowIndex;
+    if (index == null) {
+      index = indexRows();
+      rowIndex = index;
+    }
+    return index;
+  }
+
+  /**
+   * Recovers the state key of every row by walking each depth from its start state, as every state
+   * was reached from there when the model was trained.
+   */
+  private RowIndex indexRows() {
+    RowIndex index = new RowIndex(depths.length);
+    for (int d = 0; d < depths.length; d++) {
+      Rows rows = depths[d];
+      Map<Long, Integer> rowKeys = index.keys.get(d);
+      index.sizes[d] = rows.size();
+      if (rows.size() == 0) {
+        continue;
+      }
+      Deque<Long> pending = Queues.newArrayDeque();
+      rowKeys.put(0L, 0);
+      pending.add(0L);
+      while (!pending.isEmpty()) {
+        long key = pending.poll();
+        Row row = rows.get(rowKeys.get(key));
+        for (int i = 0; i < row.segments.length; i++) {
+          if (row.segments[i] != BOUNDARY) {
+            long next = nextState(key, row.segments[i], d + MIN_DEPTH);
+            if (rowKeys.putIfAbsent(next, row.successors[i]) == null) {
+              pending.add(next);
+            }
+          }
+        }
+      }
+    }
+    return index;
+  }
+
+  Rows rows(int depth) {
+    return depths[depthIndex(depth)];
+  }
+
+  private static int depthIndex(int depth) {
+    return Math.max(MIN_DEPTH, Math.min(MAX_DEPTH, depth)) - MIN_DEPTH;
+  }
+
+  static boolean isVowel(char c) {
+    return VOWELS.indexOf(c) >= 0;
+  }
+
+  /**
+   * @return End of the vowel or consonant run in chars that begins at {@param start}.
+   */
+  static int segmentEnd(CharSequence chars, int start, int end) {
+    boolean vowel = isVowel(chars.charAt(start));
+    int i = start + 1;
+    while (i < end && isVowel(chars.charAt(i)) == vowel) {
+      i++;
+    }
+    return i;
+  }
+
+  private static int internSegment(SegmentDictionary dictionary, CharSequence chars, int start,
+                                   int end) {
+    int id = dictionary.intern(chars, start, end);
+    if (id > MAX_SEGMENT_ID) {
+      throw new IllegalStateException(String.format(TOO_MANY_SEGMENTS, MAX_SEGMENT_ID));
+    }
+    return id;
+  }
+
+  /**
+   * @return Key for the state reached by appending {@param segment} to the state {@param key}.
+   */
+  static long nextState(long key, int segment, int depth) {
+    return ((key << SEGMENT_BITS) | segment) & ((1L << (SEGMENT_BITS * depth)) - 1);
+  }
+
+  /**
+   * Outgoing transitions of one state. segments[i] is a possible next segment id, weights[i] its
+   * trained weight, cumulative[i] the running total of weights up to and including it, and
+   * successors[i] the row reached by taking it (unused when the segment is {@link
+   * SegmentDictionary#BOUNDARY}).
+   */
+  static final class Row {
+
+    final int[] segments;
+    final double[] weights;
+    final float[] cumulative;
+    final int[] successors;
+
+    Row(int[] segments, double[] weights, float[] cumulative, int[] successors) {
+      this.segments = segments;
+      this.weights = weights;
+      this.cumulative = cumulative;
+      this.successors = successors;
+    }
+
+    /**
+     * @return A row with the cumulative weights summed from {@param weights}.
+     */
+    static Row of(int[] segments, double[] weights, int[] successors) {
+      float[] cumulative = new float[weights.length];
+      double total = 0;
+      for (int i = 0; i < weights.length; i++) {
+        total += weights[i];
+        cumulative[i] = (float) total;
+      }
+      return new Row(segments, weights, cumulative, successors);
+    }
+
+    float total() {
+      return cumulative[cumulative.length - 1];
+    }
+
+    float weight(int index) {
+      return (float) weights[index];
+    }
+
+    /**
+     * @return Index of the first transition whose cumulative weight exceeds {@param target}.
+     */
+    int pick(float target) {
+      int low = 0;
+      int high = cumulative.length - 1;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (cumulative[mid] > target) {
+          high = mid;
+        } else {
+          low = mid + 1;
+        }
+      }
+      return low;
+    }
+  }
+
+  /**
+   * The rows of one depth, held in fixed-size chunks so a trained model copies only the chunks
+   * holding rows it changes and shares the rest. A row only other models have is null.
+   */
+  static final class Rows {
+
+    private static final int CHUNK_BITS = 8;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final Row[][] chunks;
+    private final int size;
+
+    private Rows(Row[][] chunks, int size) {
+      this.chunks = chunks;
+      this.size = size;
+    }
+
+    static Rows of(Row[] rows) {
+      Row[][] chunks = new Row[chunkCount(rows.length)][];
+      for (int c = 0; c < chunks.length; c++) {
+        chunks[c] = Arrays.copyOfRange(rows, c << CHUNK_BITS, (c + 1) << CHUNK_BITS);
+      }
+      return new Rows(chunks, rows.length);
+    }
+
+    Row get(int row) {
+      Row[] chunk = chunks[row >>> CHUNK_BITS];
+      return chunk == null ? null : chunk[row & CHUNK_MASK];
+    }
+
+    int size() {
+      return size;
+    }
+
+    /**
+     * @return These rows grown to {@param size} with the {@param changed} rows replaced, copying
+     * only the chunks they are in.
+     */
+    Rows with(Map<Integer, Row> changed, int size) {
+      Row[][] copy = Arrays.copyOf(chunks, chunkCount(size));
+      boolean[] copied = new boolean[copy.length];
+      for (Map.Entry<Integer, Row> row : changed.entrySet()) {
+        int c = row.getKey() >>> CHUNK_BITS;
+        if (!copied[c]) {
+          copy[c] = copy[c] == null ? new Row[CHUNK_SIZE] : copy[c].clone();
+          copied[c] = true;
+        }
+        copy[c][row.getKey() & CHUNK_MASK] = row.getValue();
+      }
+      return new Rows(copy, size);
+    }
+
+    private static int chunkCount(int size) {
+      return (size + CHUNK_MASK) >>> CHUNK_BITS;
+    }
+  }
+
+  /**
+   * The row of each state key, per depth, shared by a model and every model trained from it. Keys
+   * are only ever added, each with a row of its own, so models trained from the same one with
+   * different names never give two states the same row. Only used while synchronized on it.
+   */
+  private static final class RowIndex {
+
+    private final List<Map<Long, Integer>> keys;
+    private final int[] sizes;
+
+    private RowIndex(int depths) {
+      keys = Lists.newArrayListWithCapacity(depths);
+      for (int d = 0; d < depths; d++) {
+        keys.add(Maps.newHashMap());
+      }
+      sizes = new int[depths];
+    }
+
+    /**
+     * @return The row of state {@param key} at depth index {@param depth}, adding it after every
+     * other row if it has none.
+     */
+    int row(int depth, long key) {
+      Integer row = keys.get(depth).get(key);
+      if (row == null) {
+        row = sizes[depth]++;
+        keys.get(depth).put(key, row);
+      }
+      return row;
+    }
+
+    int size(int depth) {
+      return sizes[depth];
+    }
+  }
+
+  /**
+   * Accumulates weighted names, then compiles them into a {@link NameModel}.
+   */
+  public static final class Builder {
+
+    private final SegmentDictionary dictionary;
+    // insertion ordered so the start state is always row 0
+    private final List<Map<Long, RowBuilder>> states = Lists.newArrayList();
+    private int[] ids = new int[16];
+
+    private Builder(SegmentDictionary dictionary) {
+      this.dictionary = dictionary;
+      for (int depth = MIN_DEPTH; depth <= MAX_DEPTH; depth++) {
+        states.add(Maps.newLinkedHashMap());
+      }
+    }
+
+    /**
+     * Adds {@param name} to the model with weight {@param weight}.
+     */
+    public Builder process(CharSequence name, double weight) {
+      return process(name, 0, name.length(), weight);
+    }
+
+    /**
+     * Adds the name chars[start, end) to the model with weight {@param weight}.
+     */
+    public Builder process(CharSequence chars, int start, int end, double weight) {
+      int count = 0;
+      for (int i = start; i < end; ) {
+        int segmentEnd = segmentEnd(chars, i, end);
+        if (count == ids.length) {
+          ids = Arrays.copyOf(ids, count * 2);
+        }
+        ids[count++] = intern(chars, i, segmentEnd);
+        i = segmentEnd;
+      }
+      if (count == 0) {
+        return this;
+      }
+      for (int depth = MIN_DEPTH; depth <= MAX_DEPTH; depth++) {
+        Map<Long, RowBuilder> rows = states.get(depth - MIN_DEPTH);
+        long key = 0;
+        for (int i = 0; i <= count; i++) {
+          int next = i < count ? ids[i] : BOUNDARY;
+          rows.computeIfAbsent(key, k -> new RowBuilder()).add(next, weight);
+          key = nextState(key, next, depth);
+        }
+      }
+      return this;
+    }
+
+    public NameModel build() {
+      Row[][] depths = new Row[states.size()][];
+      for (int i = 0; i < depths.length; i++) {
+        depths[i] = compile(states.get(i), i + MIN_DEPTH);
+      }
+      return shared(dictionary, depths);
+    }
+
+    private int intern(CharSequence chars, int start, int end) {
+      return internSegment(dictionary, chars, start, end);
+    }
+
+    private static Row[] compile(Map<Long, RowBuilder> states, int depth) {
+      Map<Long, Integer> rowIndex = Maps.newHashMapWithExpectedSize(states.size());
+      for (Long key : states.keySet()) {
+        rowIndex.put(key, rowIndex.size());
+      }
+      Row[] rows = new Row[states.size()];
+      for (Map.Entry<Long, RowBuilder> state : states.entrySet()) {
+        rows[rowIndex.get(state.getKey())] = state.getValue().compile(state.getKey(), depth,
+                                                                      rowIndex);
+      }
+      return rows;
+    }
+  }
+
+  private static final class RowBuilder {
+
+    private int[] segments = new int[4];
+    private double[] weights = new double[4];
+    private int size;
+
+    /**
+     * @return A builder holding the transitions of rows[{@param row}], or none for a new row.
+     */
+    static RowBuilder from(int row, Rows rows) {
+      RowBuilder builder = new RowBuilder();
+      Row existing = row < rows.size() ? rows.get(row) : null;
+      if (existing != null) {
+        for (int i = 0; i < existing.segments.length; i++) {
+          builder.add(existing.segments[i], existing.weights[i]);
+        }
+      }
+      return builder;
+    }
+
+    void add(int segment, double weight) {
+      for (int i = 0; i < size; i++) {
+        if (segments[i] == segment) {
+          weights[i] += weight;
+          return;
+        }
+      }
+      if (size == segments.length) {
+        segments = Arrays.copyOf(segments, size * 2);
+        weights = Arrays.copyOf(weights, size * 2);
+      }
+      segments[size] = segment;
+      weights[size++] = weight;
+    }
+
+    Row compile(long key, int depth, Map<Long, Integer> rowIndex) {
+      int[] successors = new int[size];
+      for (int i = 0; i < size; i++) {
+        successors[i] = segments[i] == BOUNDARY ? -1
+                                                : rowIndex.get(nextState(key, segments[i], depth));
+      }
+      return Row.of(Arrays.copyOf(segments, size), Arrays.copyOf(weights, size), successors);
+    }
+
+  }
+}
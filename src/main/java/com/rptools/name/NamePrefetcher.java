@@ -0,0 +1,139 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rptools.name;
+
+import com.google.common.collect.Lists;
+import com.rptools.util.RingBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import lombok.extern.apachecommons.CommonsLog;
+
+/**
+ * Keeps a {@link RingBuffer} of finished names filled by background threads, so callers can take a
+ * name without waiting for the Markov walk. Workers fill the buffer to capacity, then sleep until a
+ * caller notices the buffer has dropped below the refill threshold.
+ *
+ * Each name is tagged with the revision of the names it was generated from, and names from an
+ * older revision are dropped when taken, so a reload or training is never hidden behind names
+ * that were generated before it.
+ */
+@CommonsLog
+final class NamePrefetcher implements AutoCloseable {
+
+  private static final String THREAD_NAME = "name-prefetch-%d";
+  private static final String WORKER_ERROR = "Name prefetch worker failed.";
+  private static final long IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final RingBuffer<Prefetched> buffer;
+  private final Supplier<String> generator;
+  private final LongSupplier revision;
+  private final int refillThreshold;
+  private final List<Thread> workers = Lists.newArrayList();
+  private volatile boolean running = true;
+
+  /**
+   * @param generator Makes one finished name; called only from worker threads.
+   * @param revision The current revision of the names, which changes after every change to them.
+   * @param capacity Number of names to keep ready.
+   * @param refillThreshold Workers are woken once fewer than this many names are ready.
+   * @param threads Number of worker threads.
+   */
+  NamePrefetcher(Supplier<String> generator, LongSupplier revision, int capacity,
+                 int refillThreshold, int threads) {
+    this.generator = generator;
+    this.revision = revision;
+    this.buffer = new RingBuffer<>(capacity);
+    this.refillThreshold = Math.min(refillThreshold, buffer.capacity());
+    for (int i = 0; i < threads; i++) {
+      Thread worker = new Thread(this::fill, String.format(THREAD_NAME, i));
+      worker.setDaemon(true);
+      workers.add(worker);
+    }
+    workers.forEach(Thread::start);
+  }
+
+  /**
+   * Takes a prefetched name, dropping any generated before the current revision.
+   *
+   * @return The name, or null if none are ready.
+   */
+  String poll() {
+    long current = revision.getAsLong();
+    Prefetched name = buffer.poll();
+    while (name != null && name.revision != current) {
+      name = buffer.poll();
+    }
+    if (buffer.size() < refillThreshold) {
+      workers.forEach(LockSupport::unpark);
+    }
+    return name == null ? null : name.name;
+  }
+
+  /**
+   * Stops the workers and waits for them to finish the name they are on.
+   */
+  @Override
+  public void close() {
+    running = false;
+    workers.forEach(LockSupport::unpark);
+    for (Thread worker : workers) {
+      try {
+        worker.join(TimeUnit.SECONDS.toMillis(5));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private void fill() {
+    try {
+      while (running) {
+        if (buffer.size() >= buffer.capacity()) {
+          // the timeout only guards against a missed wake-up
+          while (running && buffer.size() >= refillThreshold) {
+            LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+          }
+          continue;
+        }
+        // read before generating, so a change made meanwhile drops the name
+        long generated = revision.getAsLong();
+        if (!buffer.offer(new Prefetched(generator.get(), generated))) {
+          LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+      }
+    } catch (RuntimeException e) {
+      log.error(WORKER_ERROR, e);
+    }
+  }
+
+  private static final class Prefetched {
+
+    private final String name;
+    private final long revision;
+
+    private Prefetched(String name, long revision) {
+      this.name = name;
+      this.revision = revision;
+    }
+  }
+}
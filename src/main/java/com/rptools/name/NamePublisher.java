@@ -0,0 +1,162 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.name;
+
+import com.rptools.util.RandomSource;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Publishes a fixed number of names to each subscriber, generating each name only once the
+ * subscriber has asked for it. Names are generated on whichever thread calls {@link
+ * Subscription#request}, so a slow subscriber slows generation down instead of piling names up.
+ */
+final class NamePublisher implements Publisher<String> {
+
+  private static final String BAD_REQUEST = "Requested %d names; requests must be positive.";
+
+  private final Function<RandomSource, String> generator;
+  private final long count;
+  private final Supplier<RandomSource> random;
+
+  /**
+   * @param generator Makes one name from the given random source.
+   * @param count Number of names each subscriber gets.
+   * @param random Gives each subscription its own random source.
+   */
+  NamePublisher(Function<RandomSource, String> generator, long count,
+                Supplier<RandomSource> random) {
+    this.generator = generator;
+    this.count = count;
+    this.random = random;
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super String> subscriber) {
+    Objects.requireNonNull(subscriber);
+    NameSubscription subscription = new NameSubscription(subscriber, random.get());
+    subscriber.onSubscribe(subscription);
+    if (count <= 0) {
+      subscription.complete();
+    }
+  }
+
+  private final class NameSubscription implements Subscription {
+
+    private final Subscriber<? super String> subscriber;
+    private final RandomSource rand;
+    // names requested but not yet sent; only the thread that raised it from zero sends names
+    private final AtomicLong demand = new AtomicLong();
+    private long remaining = count;
+    private volatile boolean done;
+
+    private NameSubscription(Subscriber<? super String> subscriber, RandomSource rand) {
+      this.subscriber = subscriber;
+      this.rand = rand;
+    }
+
+    @Override
+    public void request(long n) {
+      if (done) {
+        return;
+      }
+      if (n <= 0) {
+        done = true;
+        subscriber.onError(new IllegalArgumentException(String.format(BAD_REQUEST, n)));
+        return;
+      }
+      if (addDemand(n) == 0) {
+        send();
+      }
+    }
+
+    @Override
+    public void cancel() {
+      done = true;
+    }
+
+    private void complete() {
+      if (!done) {
+        done = true;
+        subscriber.onComplete();
+      }
+    }
+
+    /**
+     * Adds to the demand, capped at {@link Long#MAX_VALUE}, which counts as unbounded.
+     *
+     * @return The demand before adding.
+     */
+    private long addDemand(long n) {
+      while (true) {
+        long current = demand.get();
+        long next = current + n < 0 ? Long.MAX_VALUE : current + n;
+        if (demand.compareAndSet(current, next)) {
+          return current;
+        }
+      }
+    }
+
+    /**
+     * Sends names until the demand is used up. Requests made from {@link Subscriber#onNext} only
+     * add to the demand, so this loop picks them up rather than recursing.
+     */
+    private void send() {
+      long requested = demand.get();
+      while (true) {
+        long sent = 0;
+        while (sent < requested) {
+          if (done) {
+            return;
+          }
+          if (remaining == 0) {
+            complete();
+            return;
+          }
+          String name;
+          try {
+            name = generator.apply(rand);
+          } catch (RuntimeException e) {
+            done = true;
+            subscriber.onError(e);
+            return;
+          }
+          remaining--;
+          subscriber.onNext(name);
+          sent++;
+          if (remaining == 0) {
+            // finish without waiting for another request once the last name is out
+            complete();
+            return;
+          }
+        }
+        requested = demand.addAndGet(-sent);
+        if (requested == 0) {
+          return;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.name;
+
+import com.rptools.util.RandomSource;
+
+/**
+ * The first and last name models names are drawn from, i.e. the common ones or those of one
+ * species. Resolve the set once and keep it while generating, so each name is just the two walks.
+ */
+public final class NameSet {
+
+  // names are assembled here, then copied once into their String or the caller's Appendable
+  static final ThreadLocal<StringBuilder> NAME_BUFFER = ThreadLocal.withInitial(StringBuilder::new);
+
+  private final Names first;
+  private final Names last;
+
+  NameSet(Names first, Names last) {
+    this.first = first;
+    this.last = last;
+  }
+
+  Names getFirst() {
+    return first;
+  }
+
+  Names getLast() {
+    return last;
+  }
+
+  /**
+   * @return A capitalized "First Last" name.
+   */
+  public String makeName(RandomSource random) {
+    StringBuilder name = NAME_BUFFER.get();
+    name.setLength(0);
+    appendName(name, random);
+    return name.toString();
+  }
+
+  /**
+   * @return A capitalized "First Last" name from both models' overlays for {@param attribute}.
+   */
+  public String makeName(NameAttribute attribute, RandomSource random) {
+    StringBuilder name = NAME_BUFFER.get();
+    name.setLength(0);
+    appendName(name, attribute, random);
+    return name.toString();
+  }
+
+  /**
+   * Writes a capitalized "First Last" name straight from both models' segments.
+   */
+  void appendName(StringBuilder out, RandomSource random) {
+    first.appendName(random, out);
+    out.append(' ');
+    last.appendName(random, out);
+  }
+
+  /**
+   * Writes a capitalized "First Last" name from both models' overlays for {@param attribute}.
+   */
+  void appendName(StringBuilder out, NameAttribute attribute, RandomSource random) {
+    first.appendName(attribute, random, out);
+    out.append(' ');
+    last.appendName(attribute, random, out);
+  }
+}
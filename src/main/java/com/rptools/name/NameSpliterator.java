@@ -0,0 +1,90 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.name;
+
+import com.rptools.util.RandomSource;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Generates a fixed number of names one at a time as they are consumed, so a stream of any length
+ * holds no more than the name being handed out. Splitting hands half of the remaining names to a
+ * new spliterator with its own split of the random source, so parallel streams need no locking.
+ */
+final class NameSpliterator implements Spliterator<String> {
+
+  private static final int CHARACTERISTICS = SIZED | SUBSIZED | IMMUTABLE | NONNULL;
+  // not worth handing fewer names than this to another thread
+  private static final long MIN_SPLIT = 256;
+
+  private final Function<RandomSource, String> generator;
+  private final RandomSource random;
+  private long remaining;
+
+  /**
+   * @param generator Makes one name from the given random source.
+   * @param count Number of names to generate.
+   * @param random Source of randomness for this spliterator; split for each split.
+   */
+  NameSpliterator(Function<RandomSource, String> generator, long count, RandomSource random) {
+    this.generator = generator;
+    this.remaining = count;
+    this.random = random;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super String> action) {
+    if (remaining <= 0) {
+      return false;
+    }
+    remaining--;
+    action.accept(generator.apply(random));
+    return true;
+  }
+
+  @Override
+  public void forEachRemaining(Consumer<? super String> action) {
+    while (remaining > 0) {
+      remaining--;
+      action.accept(generator.apply(random));
+    }
+  }
+
+  @Override
+  public Spliterator<String> trySplit() {
+    if (remaining < MIN_SPLIT * 2) {
+      return null;
+    }
+    long half = remaining / 2;
+    remaining -= half;
+    return new NameSpliterator(generator, half, random.split());
+  }
+
+  @Override
+  public long estimateSize() {
+    return remaining;
+  }
+
+  @Override
+  public int characteristics() {
+    return CHARACTERISTICS;
+  }
+}
@@ -18,38 +18,261 @@
 
 package com.rptools.name;
 
-import com.dzlier.markov.MarkovChain;
-import java.util.Random;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.rptools.util.RandomSource;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
 
 /**
- * Wrapper for a {@link MarkovChain} that splits names into vowel/consonant pieces.
+ * Wrapper for a {@link NameModel} that splits names into vowel/consonant pieces.
  * I.E. "LIERGAARD" -> "L" -> "IE" -> "RG" -> "AA" -> "RD"
+ *
+ * New names can be trained into the live model with {@link #train}. Each training makes a new
+ * version of the model, copying only the rows it changes, and swaps it in whole; names being
+ * generated meanwhile finish on the version they started with, so they never wait or see half of
+ * an update.
+ *
+ * Each {@link NameAttribute} can have an overlay: a version of the model with that attribute's
+ * names trained in on top of the common ones, sharing every row they do not change. The attribute's
+ * names are scaled to carry {@link #ATTRIBUTE_SHARE} of the overlay's weight however many common
+ * names there are. Names trained later are added to each overlay with the scale it was made with,
+ * and an overlay is only remade from the common model once its share has drifted by more than
+ * {@link #SHARE_DRIFT}. Names for an attribute are drawn straight from its overlay, so they cost
+ * the same as any other name.
  */
 public class Names {
 
-  private final MarkovChain<String, String> markovChain;
-  private final Random random = new Random();
+  /**
+   * Fraction of an overlay's total weight carried by its attribute's names, the rest being the
+   * common names. At 0.75 an attribute's names are three times as likely to be followed as the
+   * common ones, which keeps them recognizable without losing the variety of the full corpus.
+   */
+  static final double ATTRIBUTE_SHARE = 0.75;
+  /**
+   * How far an overlay's attribute share may drift from {@link #ATTRIBUTE_SHARE} as names are
+   * trained before the overlay is remade with a new scale.
+   */
+  static final double SHARE_DRIFT = 0.05;
+  private static final String BAD_WEIGHT = "Name %s needs a positive weight, not %s.";
+
+  private volatile NameModel model;
+  // replaced whole, like the model; attributes without names of their own have none
+  private volatile Map<NameAttribute, Overlay> overlays = ImmutableMap.of();
+  // the names and weights each overlay is made from; only changed while synchronized
+  private final Map<NameAttribute, Map<String, Double>> attributeNames =
+      Maps.newEnumMap(NameAttribute.class);
 
-  public Names(MarkovChain<String, String> markovChain) {
-    this.markovChain = markovChain;
+  public Names(NameModel model) {
+    this.model = model;
+  }
+
+  /**
+   * @return The {@link NameModel} names are generated from.
+   */
+  public NameModel getModel() {
+    return model;
+  }
+
+  /**
+   * @return The {@link NameModel} names with {@param attribute} are generated from, which is the
+   * common one if there are no names with it.
+   */
+  NameModel getModel(NameAttribute attribute) {
+    Overlay overlay = overlays.get(attribute);
+    return overlay != null ? overlay.model : model;
   }
 
   /**
-   * Generates a name from the {@link MarkovChain}, with look-behind depth provided.
+   * Generates a name from the {@link NameModel}, with look-behind depth provided.
    *
    * @param depth Look-behind depth. Lower = more random, higher = more similar to seed names.
-   * @return {@link String} Name generated by {@link MarkovChain}.
+   * @param random Source of randomness for the walk.
+   * @return {@link String} Name generated by {@link NameModel}.
    */
-  String makeName(int depth) {
-    return markovChain.generate(depth);
+  String makeName(int depth, RandomSource random) {
+    return model.generate(depth, random);
   }
 
   /**
-   * Generates a name from the {@link MarkovChain}, with default look-behind of 2.
+   * Generates a name from the {@link NameModel}, with a random look-behind of 2 or 3.
    *
-   * @return {@link String} Name generated by {@link MarkovChain}.
+   * @param random Source of randomness for the depth and the walk.
+   * @return {@link String} Name generated by {@link NameModel}.
+   */
+  String makeName(RandomSource random) {
+    return makeName(random.nextInt(2) + 2, random);
+  }
+
+  /**
+   * Generates a name like {@link #makeName(RandomSource)}, appending it capitalized to {@param
+   * out} instead of returning it.
+   */
+  void appendName(RandomSource random, StringBuilder out) {
+    model.appendName(random.nextInt(2) + 2, random, out);
+  }
+
+  /**
+   * Generates a name like {@link #appendName(RandomSource, StringBuilder)} from the overlay for
+   * {@param attribute}.
+   */
+  void appendName(NameAttribute attribute, RandomSource random, StringBuilder out) {
+    getModel(attribute).appendName(random.nextInt(2) + 2, random, out);
+  }
+
+  /**
+   * Generates a name meeting {@param constraints} from the {@link NameModel}, with a random
+   * look-behind of 2 or 3. If no name at that depth can meet them the other depth is tried, so an
+   * empty result means the model cannot produce such a name at all.
+   *
+   * @param constraints Prefix and length the name must have.
+   * @param random Source of randomness for the depth and the walk.
+   * @return {@link String} Name generated by {@link NameModel}, or empty.
+   */
+  Optional<String> makeName(NameConstraints constraints, RandomSource random) {
+    int span = NameModel.MAX_DEPTH - NameModel.MIN_DEPTH + 1;
+    int first = random.nextInt(span);
+    NameModel current = model;
+    for (int i = 0; i < span; i++) {
+      int depth = NameModel.MIN_DEPTH + (first + i) % span;
+      Optional<String> name = current.generate(depth, constraints, random);
+      if (name.isPresent()) {
+        return name;
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Makes the overlay for {@param attribute} from {@param names} and their weights, trained on top
+   * of the current model. Replaces any overlay it had.
+   */
+  public synchronized void addOverlay(NameAttribute attribute, Map<String, Double> names) {
+    attributeNames.put(attribute, upperCase(names));
+    Map<NameAttribute, Overlay> updated = Maps.newEnumMap(NameAttribute.class);
+    updated.putAll(overlays);
+    updated.put(attribute, Overlay.make(model, attributeNames.get(attribute)));
+    overlays = Maps.immutableEnumMap(updated);
+  }
+
+  /**
+   * Adds {@param name} to the model with weight {@param weight}, tagged with {@param attribute}.
+   * The name is also added to the overlay for {@param attribute}, which is made if it has none.
+   * Names tagged {@link NameAttribute#SKIP} are left out.
+   */
+  public void train(String name, double weight, NameAttribute attribute) {
+    if (attribute != NameAttribute.SKIP) {
+      train(ImmutableMap.of(name, weight), attribute);
+    }
+  }
+
+  /**
+   * Adds {@param name} to the model with weight {@param weight}.
+   */
+  public void train(String name, double weight) {
+    train(ImmutableMap.of(name, weight), null);
+  }
+
+  /**
+   * Adds every name in {@param names} to the model with its weight, as one new version. Names are
+   * segmented the way the data files are, so they are upper-cased first.
    */
-  String makeName() {
-    return makeName(random.nextInt(2) + 2);
+  public void train(Map<String, Double> names) {
+    train(names, null);
+  }
+
+  /**
+   * Trains {@param names} into the model and adds them to the names of {@param attribute} if there
+   * is one. Each overlay has only the new names trained in, so this costs as much as the new names
+   * and not the size of the model or of the overlays.
+   */
+  private synchronized void train(Map<String, Double> names, NameAttribute attribute) {
+    Map<String, Double> common = upperCase(names);
+    if (attribute != null) {
+      Map<String, Double> tagged =
+          attributeNames.computeIfAbsent(attribute, a -> Maps.newLinkedHashMap());
+      common.forEach((name, weight) -> tagged.merge(name, weight, Double::sum));
+    }
+    NameModel trained = model.train(common);
+    Map<NameAttribute, Overlay> updated = Maps.newEnumMap(NameAttribute.class);
+    for (Map.Entry<NameAttribute, Map<String, Double>> named : attributeNames.entrySet()) {
+      Overlay overlay = overlays.get(named.getKey());
+      boolean tagged = named.getKey() == attribute;
+      updated.put(named.getKey(),
+                  overlay == null ? Overlay.make(trained, named.getValue())
+                                  : overlay.train(trained, named.getValue(), common, tagged));
+    }
+    overlays = Maps.immutableEnumMap(updated);
+    model = trained;
+  }
+
+  /**
+   * The model for one attribute: its names trained on top of the common model, each weighted by
+   * {@code scale}, and the total weight of those names before scaling.
+   */
+  private static final class Overlay {
+
+    private final NameModel model;
+    private final double scale;
+    private final double total;
+
+    private Overlay(NameModel model, double scale, double total) {
+      this.model = model;
+      this.scale = scale;
+      this.total = total;
+    }
+
+    /**
+     * Trains {@param names} on top of {@param common}, scaled so they carry {@link
+     * #ATTRIBUTE_SHARE} of the result's total weight.
+     */
+    static Overlay make(NameModel common, Map<String, Double> names) {
+      double total = 0;
+      for (double weight : names.values()) {
+        total += weight;
+      }
+      double commonTotal = common.totalWeight();
+      double scale = total == 0 || commonTotal == 0
+                     ? 1 : ATTRIBUTE_SHARE / (1 - ATTRIBUTE_SHARE) * commonTotal / total;
+      return new Overlay(common.train(Maps.transformValues(names, weight -> weight * scale)),
+                         scale, total);
+    }
+
+    /**
+     * Adds {@param added}, just trained into {@param common}, to this overlay, and to the
+     * attribute's names at this overlay's scale too if they are {@param tagged}. Remakes the
+     * overlay from {@param common} and all of {@param names} instead if that would leave the
+     * attribute's share more than {@link #SHARE_DRIFT} from {@link #ATTRIBUTE_SHARE}.
+     */
+    Overlay train(NameModel common, Map<String, Double> names, Map<String, Double> added,
+                  boolean tagged) {
+      double total = this.total;
+      if (tagged) {
+        for (double weight : added.values()) {
+          total += weight;
+        }
+      }
+      double scaled = total * scale;
+      double share = scaled / (common.totalWeight() + scaled);
+      if (Math.abs(share - ATTRIBUTE_SHARE) > SHARE_DRIFT) {
+        return make(common, names);
+      }
+      double factor = tagged ? 1 + scale : 1;
+      return new Overlay(model.train(Maps.transformValues(added, weight -> weight * factor)),
+                         scale, total);
+    }
+  }
+
+  private static Map<String, Double> upperCase(Map<String, Double> names) {
+    Map<String, Double> upperCase = Maps.newLinkedHashMap();
+    for (Map.Entry<String, Double> name : names.entrySet()) {
+      if (!(name.getValue() > 0)) {
+        throw new IllegalArgumentException(String.format(BAD_WEIGHT, name.getKey(),
+                                                         name.getValue()));
+      }
+      upperCase.merge(name.getKey().toUpperCase(Locale.ROOT), name.getValue(), Double::sum);
+    }
+    return upperCase;
   }
 }
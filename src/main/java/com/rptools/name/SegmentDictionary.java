@@ -0,0 +1,230 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rptools.name;
+
+import com.google.common.collect.Maps;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Interns name segments (runs of vowels or consonants) to small int ids. Id 0 is reserved for the
+ * name boundary, which marks both the start and the end of a name in a {@link NameModel}.
+ *
+ * Segments can be looked up straight from a range of characters, so parsers can intern segments
+ * without creating a {@link String} for every one they read. Reading segments by id never locks.
+ *
+ * Models sharing a dictionary also share their transition arrays through {@link #share}: many rows
+ * hold the same few segments and weights, so equal arrays are kept once. The dictionary only holds
+ * shared arrays weakly, so arrays of models that have been reloaded or retrained are freed with
+ * them. Segments are kept for good, but they only grow with the distinct text of the name data.
+ */
+public final class SegmentDictionary {
+
+  public static final int BOUNDARY = 0;
+  private static final int EMPTY = -1;
+
+  private volatile String[] segments = initialSegments();
+  private volatile int size = 1;
+  // open-addressed hash of segment ids, probed linearly
+  private int[] table = newTable(64);
+  // guarded by this; keys are weak, and removed once their array has been collected
+  private final Map<SharedArray, SharedArray> arrays = Maps.newHashMap();
+  private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+  /**
+   * @param id Segment id returned by {@link #intern}.
+   * @return The segment text for {@param id}.
+   */
+  public String segment(int id) {
+    return segments[id];
+  }
+
+  /**
+   * @return Number of ids handed out, including {@link #BOUNDARY}.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the id of the segment chars[start, end), adding it to the dictionary if it is new.
+   */
+  public synchronized int intern(CharSequence chars, int start, int end) {
+    int slot = find(chars, start, end);
+    if (table[slot] != EMPTY) {
+      return table[slot];
+    }
+    int id = size;
+    if (id == segments.length) {
+      segments = Arrays.copyOf(segments, id * 2);
+    }
+    segments[id] = chars.subSequence(start, end).toString();
+    size = id + 1;
+    table[slot] = id;
+    if (size * 2 > table.length) {
+      rehash();
+    }
+    return id;
+  }
+
+  /**
+   * @return The id of the segment chars[start, end), or -1 if it has never been interned.
+   */
+  public synchronized int lookup(CharSequence chars, int start, int end) {
+    return table[find(chars, start, end)];
+  }
+
+  /**
+   * @return An array equal to {@param array}, the first one shared if there is one. Neither may
+   * be changed afterwards.
+   */
+  public int[] share(int[] array) {
+    return (int[]) share(array, Arrays.hashCode(array));
+  }
+
+  /**
+   * @return An array equal to {@param array}, the first one shared if there is one. Neither may
+   * be changed afterwards.
+   */
+  public float[] share(float[] array) {
+    return (float[]) share(array, ~Arrays.hashCode(array));
+  }
+
+  /**
+   * @return An array equal to {@param array}, the first one shared if there is one. Neither may
+   * be changed afterwards.
+   */
+  public double[] share(double[] array) {
+    return (double[]) share(array, 31 * Arrays.hashCode(array));
+  }
+
+  private synchronized Object share(Object array, int hash) {
+    for (Reference<?> freed = collected.poll(); freed != null; freed = collected.poll()) {
+      arrays.remove(freed);
+    }
+    SharedArray found = arrays.get(new SharedArray(array, hash, null));
+    Object shared = found == null ? null : found.get();
+    if (shared != null) {
+      return shared;
+    }
+    SharedArray key = new SharedArray(array, hash, collected);
+    arrays.put(key, key);
+    return array;
+  }
+
+  private int find(CharSequence chars, int start, int end) {
+    int mask = table.length - 1;
+    int slot = hash(chars, start, end) & mask;
+    while (table[slot] != EMPTY && !matches(segments[table[slot]], chars, start, end)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void rehash() {
+    int[] rehashed = newTable(table.length * 2);
+    int mask = rehashed.length - 1;
+    for (int id = 1; id < size; id++) {
+      String segment = segments[id];
+      int slot = hash(segment, 0, segment.length()) & mask;
+      while (rehashed[slot] != EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+      rehashed[slot] = id;
+    }
+    table = rehashed;
+  }
+
+  private static String[] initialSegments() {
+    String[] segments = new String[16];
+    segments[BOUNDARY] = "";
+    return segments;
+  }
+
+  private static int[] newTable(int capacity) {
+    int[] table = new int[capacity];
+    Arrays.fill(table, EMPTY);
+    return table;
+  }
+
+  private static int hash(CharSequence chars, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + chars.charAt(i);
+    }
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Weak reference to an array that compares by content, with arrays of different types never
+   * equal. Once the array has been collected it is only equal to itself, so it can still be
+   * removed.
+   */
+  private static final class SharedArray extends WeakReference<Object> {
+
+    private final int hash;
+
+    private SharedArray(Object array, int hash, ReferenceQueue<Object> queue) {
+      super(array, queue);
+      this.hash = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (other == this) {
+        return true;
+      }
+      if (!(other instanceof SharedArray) || ((SharedArray) other).hash != hash) {
+        return false;
+      }
+      Object array = get();
+      Object otherArray = ((SharedArray) other).get();
+      if (array instanceof int[] && otherArray instanceof int[]) {
+        return Arrays.equals((int[]) array, (int[]) otherArray);
+      }
+      if (array instanceof float[] && otherArray instanceof float[]) {
+        return Arrays.equals((float[]) array, (float[]) otherArray);
+      }
+      if (array instanceof double[] && otherArray instanceof double[]) {
+        return Arrays.equals((double[]) array, (double[]) otherArray);
+      }
+      return false;
+    }
+  }
+
+  private static boolean matches(String segment, CharSequence chars, int start, int end) {
+    if (segment.length() != end - start) {
+      return false;
+    }
+    for (int i = 0; i < segment.length(); i++) {
+      if (segment.charAt(i) != chars.charAt(start + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
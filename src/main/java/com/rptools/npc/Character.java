@@ -1,12 +0,0 @@
-package com.rptools.npc;
-
-/**
- * Represents a randomly generated non-player character
- */
-public class Character {
-
-
-    enum Appearance {
-        DistinctiveJewelry
-    }
-}
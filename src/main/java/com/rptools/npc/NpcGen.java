@@ -0,0 +1,160 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rptools.npc;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.rptools.city.City;
+import com.rptools.metrics.Counter;
+import com.rptools.metrics.Histogram;
+import com.rptools.metrics.MetricsRegistry;
+import com.rptools.name.NameGen;
+import com.rptools.table.CompiledTable;
+import com.rptools.table.RPTable.Entry;
+import com.rptools.table.TableRoller;
+import com.rptools.util.RandomSource;
+import java.util.List;
+import java.util.Optional;
+import lombok.extern.apachecommons.CommonsLog;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Generates NPCs from an {@link NpcPlan}: a species weighted by the plan's population, a name from
+ * that species' names in {@link NameGen}, and one roll on each of the plan's appearance and trait
+ * tables.
+ *
+ * Default tables are listed, comma-separated, in rptools.npcs.appearance and rptools.npcs.traits.
+ * Tables that do not exist are left out of the plan.
+ */
+@Component
+@CommonsLog
+public class NpcGen {
+
+  private static final Splitter PATHS = Splitter.on(',').omitEmptyStrings().trimResults();
+  private static final String APPEARANCE = "rptools.npcs.appearance";
+  private static final String TRAITS = "rptools.npcs.traits";
+  private static final String DEFAULT_APPEARANCE = "NPCs/Appearance";
+  private static final String DEFAULT_TRAITS = "NPCs/Talents,NPCs/Mannerisms,"
+      + "NPCs/Interaction Traits,NPCs/Ideals,NPCs/Bonds,NPCs/Flaws and Secrets";
+  private static final String MISSING_TABLE = "No table %s, leaving it out of NPCs.";
+
+  private final NameGen nameGen;
+  private final TableRoller tableRoller;
+  private final List<String> appearanceTables;
+  private final List<String> traitTables;
+  private final Histogram generateTime;
+  private final Counter generated;
+
+  @Autowired
+  public NpcGen(NameGen nameGen, TableRoller tableRoller, Environment environment,
+                MetricsRegistry metrics) {
+    this.nameGen = nameGen;
+    this.tableRoller = tableRoller;
+    appearanceTables = PATHS.splitToList(environment.getProperty(APPEARANCE, DEFAULT_APPEARANCE));
+    traitTables = PATHS.splitToList(environment.getProperty(TRAITS, DEFAULT_TRAITS));
+    generateTime = metrics.histogram("npcs.generate");
+    generated = metrics.counter("npcs.generated");
+  }
+
+  /**
+   * Plans NPCs for a place with {@param population}, using the default tables.
+   */
+  public NpcPlan plan(City.Population population) {
+    return plan(population, appearanceTables, traitTables);
+  }
+
+  /**
+   * Plans NPCs for a place with {@param population}, compiling each of the tables once.
+   *
+   * @param population Species are picked weighted by their numbers here; all equally if empty.
+   * @param appearance Paths of the tables describing how NPCs look.
+   * @param traits Paths of the tables describing how NPCs act.
+   */
+  public NpcPlan plan(City.Population population, List<String> appearance,
+                      List<String> traits) {
+    return new NpcPlan(population, nameGen::forSpecies, compileAll(appearance),
+                       compileAll(traits));
+  }
+
+  /**
+   * Generates {@param count} NPCs living in {@param city}.
+   */
+  public NPCs generateNpcs(City city, int count) {
+    return generateNpcs(plan(city.getPopulation()), count, RandomSource.threadLocal());
+  }
+
+  /**
+   * Generates {@param count} NPCs that are the same every time for the same plan and {@param
+   * seed}.
+   */
+  public NPCs generateNpcs(NpcPlan plan, int count, long seed) {
+    return generateNpcs(plan, count, RandomSource.seeded(seed));
+  }
+
+  /**
+   * Generates {@param count} NPCs from {@param plan}, drawing every random choice from {@param
+   * random}. Each NPC is named from their own species' names.
+   */
+  public NPCs generateNpcs(NpcPlan plan, int count, RandomSource random) {
+    long start = System.nanoTime();
+    NPCs.Builder npcs = NPCs.newBuilder();
+    List<Entry> rolled = Lists.newArrayList();
+    for (int i = 0; i < count; i++) {
+      int species = plan.pickSpecies(random);
+      NPC.Builder npc = npcs.addNpcsBuilder()
+                            .setName(plan.names(species).makeName(random))
+                            .setSpecies(plan.species(species));
+      for (int t = 0; t < plan.appearance.length; t++) {
+        roll(plan.appearance[t], plan.appearanceNames[t], npc.addAppearanceBuilder(), random,
+             rolled);
+      }
+      for (int t = 0; t < plan.traits.length; t++) {
+        roll(plan.traits[t], plan.traitNames[t], npc.addTraitsBuilder(), random, rolled);
+      }
+    }
+    generateTime.recordSince(start);
+    generated.add(count);
+    return npcs.build();
+  }
+
+  private void roll(CompiledTable table, String name, NPC.Trait.Builder trait,
+                    RandomSource random, List<Entry> rolled) {
+    rolled.clear();
+    tableRoller.rollInto(table, random, rolled);
+    trait.setTable(name);
+    for (Entry entry : rolled) {
+      trait.addAllValues(entry.getValuesList());
+    }
+  }
+
+  private List<CompiledTable> compileAll(List<String> paths) {
+    List<CompiledTable> tables = Lists.newArrayListWithCapacity(paths.size());
+    for (String path : paths) {
+      Optional<CompiledTable> table = tableRoller.compile(path);
+      if (table.isPresent()) {
+        tables.add(table.get());
+      } else {
+        log.warn(String.format(MISSING_TABLE, path));
+      }
+    }
+    return tables;
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rptools.npc;
+
+import com.rptools.city.City;
+import com.rptools.city.City.Species;
+import com.rptools.name.NameSet;
+import com.rptools.table.CompiledTable;
+import com.rptools.util.RandomSource;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Everything {@link NpcGen} needs to generate NPCs for one place, resolved once: species weighted
+ * by a {@link City.Population} with each species' {@link NameSet}, and the compiled appearance and
+ * trait tables with their names.
+ * Generating an NPC is then a walk over these arrays with no lookups by name or path.
+ *
+ * Plans hold the tables as they were when planned; make a new plan to pick up reloaded tables.
+ */
+public final class NpcPlan {
+
+  private final Species[] species;
+  // cumulative population, so species[i] covers rolls below cumulative[i]
+  private final long[] cumulative;
+  private final NameSet[] names;
+  final CompiledTable[] appearance;
+  final String[] appearanceNames;
+  final CompiledTable[] traits;
+  final String[] traitNames;
+
+  NpcPlan(City.Population population, Function<Species, NameSet> speciesNames,
+          List<CompiledTable> appearance, List<CompiledTable> traits) {
+    Map<String, Integer> people = population.getPeopleMap();
+    Species[] weighted = new Species[people.size()];
+    long[] totals = new long[people.size()];
+    int count = 0;
+    long total = 0;
+    for (Map.Entry<String, Integer> entry : people.entrySet()) {
+      if (entry.getValue() > 0) {
+        total += entry.getValue();
+        weighted[count] = Species.valueOf(entry.getKey());
+        totals[count++] = total;
+      }
+    }
+    if (count == 0) {
+      // nobody lives here yet, so every species is as likely as any other
+      weighted = Arrays.stream(Species.values())
+                       .filter(value -> value != Species.UNRECOGNIZED)
+                       .toArray(Species[]::new);
+      totals = new long[weighted.length];
+      for (int i = 0; i < weighted.length; i++) {
+        totals[i] = i + 1;
+      }
+      count = weighted.length;
+    }
+    this.species = Arrays.copyOf(weighted, count);
+    this.cumulative = Arrays.copyOf(totals, count);
+    this.names = new NameSet[count];
+    for (int i = 0; i < count; i++) {
+      names[i] = speciesNames.apply(species[i]);
+    }
+    this.appearance = appearance.toArray(new CompiledTable[appearance.size()]);
+    this.appearanceNames = names(this.appearance);
+    this.traits = traits.toArray(new CompiledTable[traits.size()]);
+    this.traitNames = names(this.traits);
+  }
+
+  /**
+   * Picks a species weighted by its share of the population.
+   *
+   * @return Index of the species, for {@link #species} and {@link #names}.
+   */
+  int pickSpecies(RandomSource random) {
+    long roll = (long) (random.nextDouble() * cumulative[cumulative.length - 1]);
+    int index = Arrays.binarySearch(cumulative, roll + 1);
+    return index < 0 ? -index - 1 : index;
+  }
+
+  Species species(int index) {
+    return species[index];
+  }
+
+  NameSet names(int index) {
+    return names[index];
+  }
+
+  private static String[] names(CompiledTable[] tables) {
+    String[] names = new String[tables.length];
+    for (int i = 0; i < tables.length; i++) {
+      String name = tables[i].getTable().getName();
+      names[i] = name.isEmpty() ? tables[i].getPath() : name;
+    }
+    return names;
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rptools.table;
+
+import com.rptools.table.RPTable.Entry;
+import com.rptools.util.RandomSource;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import lombok.Getter;
+
+/**
+ * An {@link RPTable} flattened into a Vose alias table, so that picking a weighted entry costs one
+ * random draw and two array reads regardless of the number of entries.
+ *
+ * Redirect targets are kept as paths and resolved by {@link TableRoller} on first use, after which
+ * they are cached here so following a redirect does not repeat the lookup.
+ */
+public final class CompiledTable {
+
+  @Getter
+  private final String path;
+  @Getter
+  private final RPTable table;
+  private final Entry[] entries;
+  private final double[] probability;
+  private final int[] alias;
+  private final String[] redirectPaths;
+  private final int[] redirectRolls;
+  private final CompiledTable[] redirectTargets;
+
+  CompiledTable(String path, RPTable table) {
+    this.path = path;
+    this.table = table;
+    int size = table.getEntriesCount();
+    entries = table.getEntriesList().toArray(new Entry[size]);
+    probability = new double[size];
+    alias = new int[size];
+    redirectPaths = new String[size];
+    redirectRolls = new int[size];
+    redirectTargets = new CompiledTable[size];
+
+    long total = 0;
+    for (int i = 0; i < size; i++) {
+      total += weight(entries[i]);
+      if (entries[i].hasRedirect() && !entries[i].getRedirect().getTablePath().isEmpty()) {
+        redirectPaths[i] = entries[i].getRedirect().getTablePath();
+        redirectRolls[i] = Math.max(1, entries[i].getRedirect().getNumRolls());
+      }
+    }
+    buildAlias(total);
+  }
+
+  /**
+   * @return Number of entries that can be rolled on this table.
+   */
+  public int size() {
+    return entries.length;
+  }
+
+  /**
+   * Rolls once on this table without following redirects.
+   *
+   * @param random Source of randomness.
+   * @return The rolled {@link Entry}, or null if the table has no entries.
+   */
+  public Entry roll(RandomSource random) {
+    if (entries.length == 0) {
+      return null;
+    }
+    return entries[rollIndex(random)];
+  }
+
+  int rollIndex(RandomSource random) {
+    double scaled = random.nextDouble() * entries.length;
+    int column = (int) scaled;
+    return scaled - column < probability[column] ? column : alias[column];
+  }
+
+  Entry entry(int index) {
+    return entries[index];
+  }
+
+  String redirectPath(int index) {
+    return redirectPaths[index];
+  }
+
+  int redirectRolls(int index) {
+    return redirectRolls[index];
+  }
+
+  CompiledTable redirectTarget(int index) {
+    return redirectTargets[index];
+  }
+
+  void setRedirectTarget(int index, CompiledTable target) {
+    redirectTargets[index] = target;
+  }
+
+  private static int weight(Entry entry) {
+    return Math.max(1, entry.getWeight());
+  }
+
+  private void buildAlias(long total) {
+    int size = entries.length;
+    double[] scaled = new double[size];
+    Deque<Integer> small = new ArrayDeque<>();
+    Deque<Integer> large = new ArrayDeque<>();
+    for (int i = 0; i < size; i++) {
+      scaled[i] = (double) weight(entries[i]) * size / total;
+      if (scaled[i] < 1.0) {
+        small.push(i);
+      } else {
+        large.push(i);
+      }
+    }
+    while (!small.isEmpty() && !large.isEmpty()) {
+      int less = small.pop();
+      int more = large.pop();
+      probability[less] = scaled[less];
+      alias[less] = more;
+      scaled[more] = scaled[more] + scaled[less] - 1.0;
+      if (scaled[more] < 1.0) {
+        small.push(more);
+      } else {
+        large.push(more);
+      }
+    }
+    // whatever is left over is 1.0 within rounding error
+    while (!large.isEmpty()) {
+      int index = large.pop();
+      probability[index] = 1.0;
+      alias[index] = index;
+    }
+    while (!small.isEmpty()) {
+      int index = small.pop();
+      probability[index] = 1.0;
+      alias[index] = index;
+    }
+  }
+}
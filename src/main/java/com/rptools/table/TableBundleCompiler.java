@@ -0,0 +1,60 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rptools.table;
+
+import com.rptools.io.TableFileParser;
+import com.rptools.metrics.InMemoryMetricsRegistry;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import lombok.extern.apachecommons.CommonsLog;
+
+/**
+ * Build step that reads a table directory the way {@link TableReader} does and writes the whole
+ * tree as one binary {@link RPTable}, for {@link TableReader} to load with rptools.tables.bundle
+ * set. Redirects are checked while compiling, see {@link TableIndex}.
+ *
+ * Usage: TableBundleCompiler &lt;tables directory&gt; &lt;bundle file&gt;
+ */
+@CommonsLog
+public final class TableBundleCompiler {
+
+  private static final String USAGE = "Usage: TableBundleCompiler <tables directory> <bundle file>";
+  private static final String COMPILED = "Compiled %d tables into %s.";
+
+  private TableBundleCompiler() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2 || !new File(args[0]).isDirectory()) {
+      throw new IllegalArgumentException(USAGE);
+    }
+    File bundle = new File(args[1]);
+    TableFileParser fileParser = new TableFileParser(new InMemoryMetricsRegistry());
+    RPTable tables = TableReader.readTables(fileParser, new File(args[0])).build();
+    TableIndex index = TableIndex.build(tables);
+
+    Files.createDirectories(bundle.getAbsoluteFile().getParentFile().toPath());
+    try (OutputStream out = Files.newOutputStream(bundle.toPath())) {
+      tables.writeTo(out);
+    }
+    log.info(String.format(COMPILED, index.size(), bundle));
+  }
+}
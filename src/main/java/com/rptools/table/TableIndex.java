@@ -0,0 +1,213 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rptools.table;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.rptools.table.RPTable.Entry;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import lombok.Getter;
+import lombok.extern.apachecommons.CommonsLog;
+
+/**
+ * Every table in a loaded tree, keyed by its full slash-separated path, i.e.
+ * "Dungeon/Encounters/Level 5", so a lookup is one hash lookup instead of a walk through the
+ * nested table maps.
+ *
+ * Redirect paths are checked when the index is built: each one that resolves is also stored under
+ * its path exactly as written in the table, and missing targets are logged. Tables that redirect
+ * back to themselves, directly or through other tables, are logged and marked so they are refused
+ * instead of rolled on, see {@link #hasRedirectCycle}.
+ */
+@CommonsLog
+final class TableIndex {
+
+  private static final Splitter PATH_SPLITTER = Splitter.on('/').omitEmptyStrings().trimResults();
+  private static final String MISSING_REDIRECT = "Table %s redirects to missing table %s.";
+  private static final String REDIRECT_CYCLE = "Tables %s redirect back to themselves.";
+
+  @Getter
+  private final RPTable root;
+  private final ImmutableMap<String, RPTable> tables;
+  private final ImmutableMap<String, RPTable> redirects;
+  // paths of the tables on a redirect cycle
+  private final ImmutableSet<String> cyclic;
+  @Getter
+  private final ImmutableSortedSet<String> paths;
+  @Getter
+  private final long entryCount;
+
+  private TableIndex(RPTable root, ImmutableMap<String, RPTable> tables,
+                     ImmutableMap<String, RPTable> redirects, ImmutableSet<String> cyclic) {
+    this.root = root;
+    this.tables = tables;
+    this.redirects = redirects;
+    this.cyclic = cyclic;
+    this.paths = ImmutableSortedSet.copyOf(tables.keySet());
+    this.entryCount = tables.values().stream().mapToLong(RPTable::getEntriesCount).sum();
+  }
+
+  /**
+   * Indexes every table below {@param root} and validates their redirects.
+   */
+  static TableIndex build(RPTable root) {
+    Map<String, RPTable> tables = Maps.newHashMap();
+    addTables(root, "", tables);
+
+    Map<String, RPTable> redirects = Maps.newHashMap();
+    Map<String, Set<String>> targets = Maps.newHashMap();
+    for (Map.Entry<String, RPTable> table : tables.entrySet()) {
+      for (Entry entry : table.getValue().getEntriesList()) {
+        String redirect = entry.hasRedirect() ? entry.getRedirect().getTablePath() : "";
+        if (redirect.isEmpty()) {
+          continue;
+        }
+        String target = normalize(redirect);
+        if (!tables.containsKey(target)) {
+          log.warn(String.format(MISSING_REDIRECT, table.getKey(), redirect));
+          continue;
+        }
+        redirects.put(redirect, tables.get(target));
+        targets.computeIfAbsent(table.getKey(), key -> Sets.newHashSet()).add(target);
+      }
+    }
+    return new TableIndex(root, ImmutableMap.copyOf(tables), ImmutableMap.copyOf(redirects),
+                          new CycleFinder(targets).find());
+  }
+
+  /**
+   * @param path Table path, either as written in a redirect or slash-separated table names.
+   * @return The table at {@param path}; the root table for an empty path.
+   */
+  Optional<RPTable> find(String path) {
+    RPTable table = tables.get(path);
+    if (table == null) {
+      table = redirects.get(path);
+    }
+    if (table == null) {
+      String key = normalize(path);
+      table = key.isEmpty() ? root : tables.get(key);
+    }
+    return Optional.ofNullable(table);
+  }
+
+  /**
+   * @param path Table path, either as written in a redirect or slash-separated table names.
+   * @return Whether the table at {@param path} redirects back to itself, directly or through other
+   * tables.
+   */
+  boolean hasRedirectCycle(String path) {
+    return !cyclic.isEmpty() && cyclic.contains(normalize(path));
+  }
+
+  /**
+   * @return Number of tables in the index, not counting the root table.
+   */
+  int size() {
+    return tables.size();
+  }
+
+  /**
+   * @return The sorted paths starting with {@param prefix}, as a view of the index.
+   */
+  static ImmutableSortedSet<String> withPrefix(ImmutableSortedSet<String> paths, String prefix) {
+    return paths.subSet(prefix, true, prefix + Character.MAX_VALUE, false);
+  }
+
+  static String normalize(String path) {
+    return String.join("/", PATH_SPLITTER.split(path));
+  }
+
+  private static void addTables(RPTable folder, String prefix, Map<String, RPTable> tables) {
+    for (Map.Entry<String, RPTable> table : folder.getTablesMap().entrySet()) {
+      String path = prefix + table.getKey();
+      tables.put(path, table.getValue());
+      addTables(table.getValue(), path + "/", tables);
+    }
+  }
+
+  /**
+   * Finds the tables on redirect cycles: the strongly connected components of the redirect graph
+   * with more than one table, or one table redirecting to itself (Tarjan's algorithm).
+   */
+  private static final class CycleFinder {
+
+    private final Map<String, Set<String>> targets;
+    private final Map<String, Integer> order = Maps.newHashMap();
+    private final Map<String, Integer> lowest = Maps.newHashMap();
+    private final Deque<String> stack = new ArrayDeque<>();
+    private final Set<String> onStack = Sets.newHashSet();
+    private final Set<String> cyclic = Sets.newHashSet();
+
+    CycleFinder(Map<String, Set<String>> targets) {
+      this.targets = targets;
+    }
+
+    ImmutableSet<String> find() {
+      for (String path : targets.keySet()) {
+        if (!order.containsKey(path)) {
+          visit(path);
+        }
+      }
+      return ImmutableSet.copyOf(cyclic);
+    }
+
+    private void visit(String path) {
+      order.put(path, order.size());
+      lowest.put(path, order.get(path));
+      stack.push(path);
+      onStack.add(path);
+      Set<String> next = targets.getOrDefault(path, Collections.emptySet());
+      for (String target : next) {
+        if (!order.containsKey(target)) {
+          visit(target);
+          lowest.put(path, Math.min(lowest.get(path), lowest.get(target)));
+        } else if (onStack.contains(target)) {
+          lowest.put(path, Math.min(lowest.get(path), order.get(target)));
+        }
+      }
+      if (!lowest.get(path).equals(order.get(path))) {
+        return;
+      }
+      List<String> component = Lists.newArrayList();
+      String member;
+      do {
+        member = stack.pop();
+        onStack.remove(member);
+        component.add(member);
+      } while (!member.equals(path));
+      if (component.size() > 1 || next.contains(path)) {
+        Collections.sort(component);
+        log.warn(String.format(REDIRECT_CYCLE, String.join(", ", component)));
+        cyclic.addAll(component);
+      }
+    }
+  }
+}
@@ -1,72 +1,565 @@
-package com.rptools.table;
-
-import com.google.common.collect.Lists;
-import com.rptools.io.TableFileParser;
-import java.io.File;
-import java.io.FileFilter;
-import java.util.Collection;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Objects;
-import java.util.Optional;
-import lombok.Getter;
-import lombok.extern.apachecommons.CommonsLog;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.DirectoryFileFilter;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.stereotype.Component;
-
-@Component
-@CommonsLog
-public class TableReader {
-
-  private final TableFileParser fileParser;
-  @Getter
-  private final RPTable tables;
-
-  @Autowired
-  public TableReader(TableFileParser fileParser) {
-    this.fileParser = fileParser;
-    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
-    tables = Optional.ofNullable(classLoader.getResource("/data/tables/"))
-                     .map(FileUtils::toFile)
-                     .map(this::readTables)
-                     .map(RPTable.Builder::build)
-                     .orElse(null);
-  }
-
-  private RPTable.Builder readTables(File file) {
-    log.fatal("Reading table file " + file.getName());
-    if (file.isDirectory()) {
-      Collection<File> files = FileUtils
-          .listFiles(file, new String[]{"json", "txt"}, false);
-      RPTable.Builder tables = RPTable.newBuilder().setName(processName(file));
-      files.stream()
-           .sorted(Comparator.comparing(File::getName))
-           .map(File::toPath)
-           .map(fileParser::parseFile)
-           .filter(Objects::nonNull)
-           .forEach(table -> tables.putTables(table.getName(), table.build()));
-      List<File> subdirs = Lists.newArrayList(
-          file.listFiles((FileFilter) DirectoryFileFilter.DIRECTORY));
-      subdirs.stream()
-             .sorted(Comparator.comparing(File::getName))
-             .filter(dir -> !dir.equals(file))
-             .map(this::readTables)
-             .forEach(table -> {
-               if (tables.getTablesMap().containsKey(table.getName())) {
-                 table.mergeFrom(tables.getTablesMap().get(table.getName()));
-               }
-               tables.putTables(table.getName(), table.build());
-             });
-      return tables;
-    } else {
-      return Optional.of(file.toPath()).map(fileParser::parseFile).orElse(null);
-    }
-  }
-
-  private String processName(File file) {
-    return file.getName().replace(".txt", "").replace(".json", "")
-               .replaceAll("^[0-9]*", "");
-  }
-}
+package com.rptools.table;
+
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.protobuf.CodedInputStream;
+import com.rptools.io.DataFileListener;
+import com.rptools.io.TableFileParser;
+import com.rptools.metrics.MetricsRegistry;
+import com.rptools.util.Readiness;
+import com.rptools.util.StartupExecutor;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import lombok.extern.apachecommons.CommonsLog;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.filefilter.DirectoryFileFilter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Loads the table tree under /data/tables/. Directories become folder tables holding their files'
+ * tables and their subdirectories. Files and subdirectories are read in parallel on the common
+ * fork/join pool, and added to their folder in name order, so the tree is the same as a serial
+ * read.
+ *
+ * With rptools.tables.lazy set, startup only indexes the table files by path; each table is parsed
+ * the first time {@link #getTable} asks for it, and the whole tree only once {@link #getTables} is
+ * called. Tables are indexed under the same names a full load gives them, which only needs the
+ * start of each json file, see {@link TableFileParser#readName}.
+ *
+ * A changed table file only re-parses that file, then swaps in a new tree sharing every untouched
+ * table with the old one; readers never lock.
+ *
+ * With rptools.tables.bundle set, the tree is instead read from /data/tables.bin, a single binary
+ * {@link RPTable} written at build time by {@link TableBundleCompiler}. The bundle is memory-mapped
+ * and parsed with the binary protobuf codec, and the json and text files are never read.
+ *
+ * Once the tree is loaded, tables are looked up through a flat {@link TableIndex} of their full
+ * paths, which also checks every redirect when it is built. The "tables.count" and
+ * "tables.entries" gauges count what is loaded so far.
+ *
+ * Loading runs on the {@link StartupExecutor}; every lookup waits until it is done.
+ */
+@Component
+@CommonsLog
+public class TableReader implements DataFileListener, Readiness {
+
+  private static final String LAZY = "rptools.tables.lazy";
+  private static final String BUNDLE = "rptools.tables.bundle";
+  private static final String BUNDLE_RESOURCE = "/data/tables.bin";
+  private static final String BUNDLE_ERROR = "Error reading table bundle %s: %s";
+  private static final String BUNDLE_MISSING = "No table bundle at %s, reading table files.";
+  private static final String INDEXED = "Indexed %d table files for lazy loading.";
+  private static final String RELOADED = "Reloaded table file %s.";
+  private static final String INDEX_BUILT = "Indexed %d tables.";
+
+  private final TableFileParser fileParser;
+  private final File root;
+  private final URL bundle;
+  // lazy mode only: table path -> the json/txt file and/or directory defining it
+  private final Map<String, File> tableFiles = Maps.newConcurrentMap();
+  private final Map<String, File> tableDirs = Maps.newConcurrentMap();
+  private final Map<String, RPTable> loaded = new ConcurrentHashMap<>();
+  // the table path each table file was loaded under, so a deleted file drops exactly its table
+  private final Map<Path, String> fileKeys = Maps.newConcurrentMap();
+  private volatile TableIndex index;
+  private volatile int version;
+  private final CompletableFuture<Void> ready;
+
+  @Autowired
+  public TableReader(TableFileParser fileParser, Environment environment,
+                     MetricsRegistry metrics, StartupExecutor startup) {
+    this.fileParser = fileParser;
+    metrics.gauge("tables.count", () -> {
+      TableIndex all = index;
+      return all == null ? loaded.size() : all.size();
+    });
+    metrics.gauge("tables.entries", () -> {
+      TableIndex all = index;
+      return all == null
+             ? loaded.values().stream().mapToLong(RPTable::getEntriesCount).sum()
+             : all.getEntryCount();
+    });
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    root = Optional.ofNullable(classLoader.getResource("/data/tables/"))
+                   .map(FileUtils::toFile)
+                   .orElse(null);
+    boolean bundled = environment.getProperty(BUNDLE, Boolean.class, false);
+    bundle = bundled ? classLoader.getResource(BUNDLE_RESOURCE) : null;
+    boolean lazy = environment.getProperty(LAZY, Boolean.class, false);
+    ready = CompletableFuture.runAsync(() -> load(bundled, lazy), startup);
+  }
+
+  @Override
+  public CompletableFuture<Void> getReady() {
+    return ready;
+  }
+
+  private void load(boolean bundled, boolean lazy) {
+    if (bundle != null) {
+      index = readBundle(bundle);
+      if (index != null) {
+        return;
+      }
+    } else if (bundled) {
+      log.warn(String.format(BUNDLE_MISSING, BUNDLE_RESOURCE));
+    }
+    if (lazy && root != null) {
+      indexTables(root, "");
+      log.info(String.format(INDEXED, tableFiles.size()));
+    } else {
+      index = indexAll();
+    }
+  }
+
+  /**
+   * @return The root table holding every table under /data/tables/. In lazy mode the first call
+   * loads every table.
+   */
+  public RPTable getTables() {
+    ready.join();
+    TableIndex all = getIndex();
+    return all == null ? null : all.getRoot();
+  }
+
+  /**
+   * Looks up a single table. In lazy mode only that table (or, for a folder, its subtree) is
+   * parsed, and it is cached for later calls.
+   *
+   * @param path Slash-separated table names below the root table, i.e. "Dungeon/Encounters".
+   * @return The table at {@param path}, or empty if there is none.
+   */
+  public Optional<RPTable> getTable(String path) {
+    ready.join();
+    TableIndex all = index;
+    if (all != null) {
+      return all.find(path);
+    }
+    String key = TableIndex.normalize(path);
+    if (key.isEmpty()) {
+      return Optional.ofNullable(getTables());
+    }
+    RPTable table = loaded.get(key);
+    if (table == null && (tableFiles.containsKey(key) || tableDirs.containsKey(key))) {
+      table = loaded.computeIfAbsent(key, this::loadTable);
+    }
+    return Optional.ofNullable(table);
+  }
+
+  /**
+   * Whether the table at {@param path} redirects back to itself, directly or through other tables.
+   * Cycles are found when the whole tree is indexed, so in lazy mode nothing is reported until
+   * {@link #getTables} has loaded it.
+   *
+   * @param path Slash-separated table names below the root table.
+   */
+  public boolean hasRedirectCycle(String path) {
+    ready.join();
+    TableIndex all = index;
+    return all != null && all.hasRedirectCycle(path);
+  }
+
+  /**
+   * Lists table paths in name order. In lazy mode this lists the indexed files without parsing
+   * them.
+   *
+   * @param prefix Start of the paths to list, i.e. "Dungeon/" for every table below Dungeon.
+   * @return Every table path starting with {@param prefix}.
+   */
+  public SortedSet<String> listTables(String prefix) {
+    ready.join();
+    TableIndex all = index;
+    ImmutableSortedSet<String> paths = all != null
+        ? all.getPaths()
+        : ImmutableSortedSet.copyOf(Iterables.concat(tableFiles.keySet(), tableDirs.keySet()));
+    return TableIndex.withPrefix(paths, prefix);
+  }
+
+  /**
+   * @return Number of times tables have been reloaded; anything cached from earlier tables is
+   * stale once this changes.
+   */
+  public int getVersion() {
+    return version;
+  }
+
+  /**
+   * Re-parses a changed table file, or drops a deleted one, and swaps in the updated tables. When
+   * reading from the bundle only a rewritten bundle is reloaded.
+   */
+  @Override
+  public synchronized void dataFileChanged(Path file, boolean deleted) {
+    ready.join();
+    String fileName = file.getFileName().toString();
+    if (bundle != null) {
+      File bundleFile = FileUtils.toFile(bundle);
+      TableIndex reloaded = !deleted && file.toFile().equals(bundleFile) ? readBundle(bundle) : null;
+      if (reloaded != null) {
+        index = reloaded;
+        version++;
+        log.info(String.format(RELOADED, file));
+      }
+      return;
+    }
+    if (root == null || !file.startsWith(root.toPath())
+        || !(fileName.endsWith(".json") || fileName.endsWith(".txt"))) {
+      return;
+    }
+    // text tables delete themselves once they are converted to json
+    if (deleted && fileName.endsWith(".txt")) {
+      return;
+    }
+    List<String> folders = Lists.newArrayList();
+    for (Path dir : root.toPath().relativize(file.getParent())) {
+      if (!dir.toString().isEmpty()) {
+        folders.add(processName(dir.toFile()));
+      }
+    }
+    String prefix = folders.isEmpty() ? "" : String.join("/", folders) + "/";
+    boolean changed = index == null ? reindex(file, prefix, folders, deleted)
+                                    : reload(file, prefix, folders, deleted);
+    if (changed) {
+      version++;
+      log.info(String.format(RELOADED, file));
+    }
+  }
+
+  /**
+   * Re-parses the changed file, or drops the table a deleted file was loaded as, and swaps in the
+   * new tree.
+   *
+   * @return Whether the tree changed.
+   */
+  private boolean reload(Path file, String prefix, List<String> folders, boolean deleted) {
+    RPTable.Builder table = deleted ? null : fileParser.parseFile(file);
+    if (!deleted && table == null) {
+      return false;
+    }
+    String key = deleted ? fileKeys.remove(file) : prefix + table.getName();
+    if (key == null) {
+      return false;
+    }
+    RPTable tables = index.getRoot();
+    File dir = file.getParent().toFile();
+    String renamed = deleted ? null : fileKeys.put(jsonFile(file), key);
+    if (renamed != null && !renamed.equals(key)) {
+      String name = renamed.substring(prefix.length());
+      tables = replace(tables, folders, 0, name, null, hasFolder(dir, name));
+    }
+    String name = key.substring(prefix.length());
+    tables = replace(tables, folders, 0, name, table == null ? null : table.build(),
+                     hasFolder(dir, name));
+    index = TableIndex.build(tables);
+    return true;
+  }
+
+  /**
+   * @return Whether {@param dir} has a subdirectory read as the folder table {@param name}.
+   */
+  private static boolean hasFolder(File dir, String name) {
+    File[] subdirs = dir.listFiles((FileFilter) DirectoryFileFilter.DIRECTORY);
+    return subdirs != null && Arrays.stream(subdirs).anyMatch(sub -> processName(sub).equals(name));
+  }
+
+  /**
+   * Lazy mode: points the index at the changed file and forgets the cached table and the folders
+   * above it, which hold a copy of it, so they are parsed again on next use.
+   *
+   * @return Whether the index changed.
+   */
+  private boolean reindex(Path file, String prefix, List<String> folders, boolean deleted) {
+    String name = deleted ? null : fileParser.readName(file);
+    if (!deleted && name == null) {
+      return false;
+    }
+    String key = deleted ? fileKeys.remove(file) : prefix + name;
+    if (key == null) {
+      return false;
+    }
+    if (deleted) {
+      tableFiles.remove(key);
+    } else {
+      String renamed = fileKeys.put(jsonFile(file), key);
+      if (renamed != null && !renamed.equals(key)) {
+        tableFiles.remove(renamed);
+        loaded.remove(renamed);
+      }
+      tableFiles.put(key, file.toFile());
+    }
+    loaded.remove(key);
+    for (int i = folders.size(); i > 0; i--) {
+      loaded.remove(String.join("/", folders.subList(0, i)));
+    }
+    return true;
+  }
+
+  /**
+   * Copies the path from {@param folder} down to the changed table, replacing it with {@param
+   * table} (or removing it if null). Every other table is shared with the old tree. If the table
+   * shares its name with a folder, the folder's tables are kept.
+   */
+  private static RPTable replace(RPTable folder, List<String> folders, int depth, String name,
+                                 RPTable table, boolean isFolder) {
+    RPTable.Builder builder = folder.toBuilder();
+    if (depth < folders.size()) {
+      String dir = folders.get(depth);
+      RPTable child = folder.getTablesMap()
+                            .getOrDefault(dir, RPTable.newBuilder().setName(dir).build());
+      builder.putTables(dir, replace(child, folders, depth + 1, name, table, isFolder));
+      return builder.build();
+    }
+    RPTable existing = folder.getTablesMap().get(name);
+    if (isFolder && existing != null) {
+      // the file shares its name with a folder; keep the folder's tables as a full load would
+      RPTable.Builder merged = RPTable.newBuilder()
+                                      .setName(existing.getName())
+                                      .putAllTables(existing.getTablesMap());
+      table = table == null ? merged.build() : merged.mergeFrom(table).build();
+    }
+    if (table == null) {
+      builder.removeTables(name);
+    } else {
+      builder.putTables(name, table);
+    }
+    return builder.build();
+  }
+
+  private TableIndex getIndex() {
+    TableIndex all = index;
+    if (all == null && root != null) {
+      synchronized (this) {
+        if (index == null) {
+          index = indexAll();
+          // lookups go through the index from now on
+          loaded.clear();
+        }
+        all = index;
+      }
+    }
+    return all;
+  }
+
+  /**
+   * Maps the bundle into memory if it is a file, or else streams it, and parses it as one {@link
+   * RPTable}.
+   */
+  private static TableIndex readBundle(URL resource) {
+    File file = FileUtils.toFile(resource);
+    try {
+      RPTable tables;
+      if (file == null) {
+        try (InputStream stream = resource.openStream()) {
+          CodedInputStream input = CodedInputStream.newInstance(stream);
+          input.setSizeLimit(Integer.MAX_VALUE);
+          tables = RPTable.parseFrom(input);
+        }
+      } else {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+          MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+          CodedInputStream input = CodedInputStream.newInstance(buffer);
+          input.setSizeLimit(buffer.remaining());
+          tables = RPTable.parseFrom(input);
+        }
+      }
+      TableIndex all = TableIndex.build(tables);
+      log.info(String.format(INDEX_BUILT, all.size()));
+      return all;
+    } catch (IOException e) {
+      log.error(String.format(BUNDLE_ERROR, resource, e.toString()), e);
+      return null;
+    }
+  }
+
+  private TableIndex indexAll() {
+    TableIndex all = Optional.ofNullable(root)
+                             .map(this::readTables)
+                             .map(RPTable.Builder::build)
+                             .map(TableIndex::build)
+                             .orElse(null);
+    if (all != null) {
+      log.info(String.format(INDEX_BUILT, all.size()));
+    }
+    return all;
+  }
+
+  private void indexTables(File dir, String prefix) {
+    for (File file : FileUtils.listFiles(dir, new String[]{"json", "txt"}, false)) {
+      // a text table is converted to json when parsed, so the json file wins
+      if (file.getName().endsWith(".txt")
+          && new File(dir, FilenameUtils.getBaseName(file.getName()) + ".json").exists()) {
+        continue;
+      }
+      String name = fileParser.readName(file.toPath());
+      if (name != null) {
+        tableFiles.put(prefix + name, file);
+        fileKeys.put(jsonFile(file.toPath()), prefix + name);
+      }
+    }
+    for (File subdir : dir.listFiles((FileFilter) DirectoryFileFilter.DIRECTORY)) {
+      String path = prefix + processName(subdir);
+      tableDirs.put(path, subdir);
+      indexTables(subdir, path + "/");
+    }
+  }
+
+  private RPTable loadTable(String path) {
+    File dir = tableDirs.get(path);
+    File file = tableFiles.get(path);
+    RPTable.Builder table = dir == null ? null : readTables(fileParser, dir, path + "/", fileKeys);
+    RPTable.Builder fromFile = file == null ? null : fileParser.parseFile(file.toPath());
+    if (table == null) {
+      return fromFile == null ? null : fromFile.build();
+    }
+    if (fromFile != null) {
+      table.mergeFrom(fromFile.build());
+    }
+    return table.build();
+  }
+
+  private RPTable.Builder readTables(File file) {
+    return readTables(fileParser, file, "", fileKeys);
+  }
+
+  /**
+   * Reads the table tree under {@param file} the same way a full load does.
+   */
+  static RPTable.Builder readTables(TableFileParser fileParser, File file) {
+    return readTables(fileParser, file, "", Maps.newConcurrentMap());
+  }
+
+  /**
+   * Reads the table tree under {@param file}, whose tables have paths starting with {@param
+   * prefix}, and puts the path of each table file's table in {@param keys}.
+   */
+  private static RPTable.Builder readTables(TableFileParser fileParser, File file, String prefix,
+                                            Map<Path, String> keys) {
+    return ForkJoinPool.commonPool().invoke(new ReadTablesTask(fileParser, file, prefix, keys));
+  }
+
+  /**
+   * Reads one table file, or a directory by forking a task for each of its subdirectories and each
+   * group of files sharing a name, and joining them in name order.
+   */
+  private static final class ReadTablesTask extends RecursiveTask<RPTable.Builder> {
+
+    private final TableFileParser fileParser;
+    private final File file;
+    private final String prefix;
+    private final Map<Path, String> keys;
+
+    private ReadTablesTask(TableFileParser fileParser, File file, String prefix,
+                           Map<Path, String> keys) {
+      this.fileParser = fileParser;
+      this.file = file;
+      this.prefix = prefix;
+      this.keys = keys;
+    }
+
+    @Override
+    protected RPTable.Builder compute() {
+      log.debug("Reading table file " + file.getName());
+      if (!file.isDirectory()) {
+        return fileParser.parseFile(file.toPath());
+      }
+      // parsing X.txt rewrites X.json, so both are read by one task, one after the other
+      List<ReadFilesTask> files = FileUtils
+          .listFiles(file, new String[]{"json", "txt"}, false).stream()
+          .sorted(Comparator.comparing(File::getName))
+          .collect(Collectors.groupingBy(child -> FilenameUtils.getBaseName(child.getName()),
+                                         LinkedHashMap::new, Collectors.toList()))
+          .values().stream()
+          .map(group -> new ReadFilesTask(fileParser, group))
+          .collect(Collectors.toList());
+      List<ReadTablesTask> subdirs = Lists
+          .newArrayList(file.listFiles((FileFilter) DirectoryFileFilter.DIRECTORY)).stream()
+          .sorted(Comparator.comparing(File::getName))
+          .filter(dir -> !dir.equals(file))
+          .map(dir -> new ReadTablesTask(fileParser, dir, prefix + processName(dir) + "/",
+                                         keys))
+          .collect(Collectors.toList());
+      invokeAll(Lists.newArrayList(Iterables.concat(files, subdirs)));
+
+      RPTable.Builder tables = RPTable.newBuilder().setName(processName(file));
+      for (ReadFilesTask task : files) {
+        List<RPTable.Builder> read = task.join();
+        for (int i = 0; i < read.size(); i++) {
+          RPTable.Builder table = read.get(i);
+          if (table != null) {
+            tables.putTables(table.getName(), table.build());
+            keys.put(jsonFile(task.files.get(i).toPath()), prefix + table.getName());
+          }
+        }
+      }
+      for (ReadTablesTask task : subdirs) {
+        RPTable.Builder table = task.join();
+        if (tables.getTablesMap().containsKey(table.getName())) {
+          table.mergeFrom(tables.getTablesMap().get(table.getName()));
+        }
+        tables.putTables(table.getName(), table.build());
+      }
+      return tables;
+    }
+  }
+
+  /**
+   * Reads table files that share a name in name order, i.e. X.json before X.txt.
+   */
+  private static final class ReadFilesTask extends RecursiveTask<List<RPTable.Builder>> {
+
+    private final TableFileParser fileParser;
+    private final List<File> files;
+
+    private ReadFilesTask(TableFileParser fileParser, List<File> files) {
+      this.fileParser = fileParser;
+      this.files = files;
+    }
+
+    @Override
+    protected List<RPTable.Builder> compute() {
+      List<RPTable.Builder> tables = Lists.newArrayListWithCapacity(files.size());
+      for (File file : files) {
+        log.debug("Reading table file " + file.getName());
+        tables.add(fileParser.parseFile(file.toPath()));
+      }
+      return tables;
+    }
+  }
+
+  /**
+   * @return The json file {@param file} is, or becomes once a text table is parsed.
+   */
+  private static Path jsonFile(Path file) {
+    String name = file.getFileName().toString();
+    return name.endsWith(".txt") ? file.resolveSibling(FilenameUtils.getBaseName(name) + ".json")
+                                 : file;
+  }
+
+  private static String processName(File file) {
+    return file.getName().replace(".txt", "").replace(".json", "")
+               .replaceAll("^[0-9]*", "");
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rptools.table;
+
+import com.google.common.collect.Lists;
+import com.rptools.io.MessageStreamWriter;
+import com.rptools.table.RPTable.Entry;
+import com.rptools.util.RandomSource;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.apachecommons.CommonsLog;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Rolls on the tables loaded by {@link TableReader}. Each table is compiled into a {@link
+ * CompiledTable} the first time it is used, and redirect entries are followed to the tables they
+ * point at until only plain entries remain. Tables that redirect back to themselves are refused.
+ */
+@Component
+@CommonsLog
+public class TableRoller {
+
+  private static final String MISSING_REDIRECT = "Table %s redirects to missing table %s.";
+  private static final String REDIRECT_CYCLE =
+      "Table %s redirects back to itself, directly or through other tables.";
+  private static final String REDIRECT_DEPTH = "Stopped following redirects from %s after %d hops.";
+  private static final int MAX_REDIRECT_DEPTH = 16;
+
+  private final TableReader tableReader;
+  // replaced whole when the tables are reloaded, so nothing compiled from older tables lands in it
+  private volatile Compiled compiled = new Compiled(0);
+
+  @Autowired
+  public TableRoller(TableReader tableReader) {
+    this.tableReader = tableReader;
+  }
+
+  /**
+   * Looks up the table at {@param path} and compiles it, or returns the already compiled table.
+   *
+   * @param path Slash-separated table names below the root table, i.e. "Dungeon/Encounters".
+   * @return {@link CompiledTable} for the path, or empty if no table has that path.
+   * @throws IllegalStateException if the table redirects back to itself.
+   */
+  public Optional<CompiledTable> compile(String path) {
+    int version = tableReader.getVersion();
+    Compiled current = compiled;
+    if (current.version < version) {
+      // tables were reloaded, so compiled tables and their redirect targets may be stale
+      synchronized (this) {
+        if (compiled.version < version) {
+          compiled = new Compiled(version);
+        }
+        current = compiled;
+      }
+    }
+    CompiledTable table = current.tables.get(path);
+    if (table == null) {
+      if (tableReader.hasRedirectCycle(path)) {
+        throw new IllegalStateException(String.format(REDIRECT_CYCLE, path));
+      }
+      table = tableReader.getTable(path).map(found -> new CompiledTable(path, found)).orElse(null);
+      // tables read after seeing this version are at least as new as it
+      if (table != null && current.version == version) {
+        CompiledTable existing = current.tables.putIfAbsent(path, table);
+        table = existing == null ? table : existing;
+      }
+    }
+    return Optional.ofNullable(table);
+  }
+
+  /**
+   * Rolls once on the table at {@param path}, following any redirects.
+   *
+   * @param path Slash-separated table names below the root table.
+   * @return Every non-redirect {@link Entry} the roll resolved to; empty if the table is missing.
+   */
+  public List<Entry> roll(String path) {
+    return compile(path).map(this::roll).orElse(Lists.newArrayList());
+  }
+
+  /**
+   * Rolls once on {@param table}, following any redirects.
+   *
+   * @param table Compiled table to roll on.
+   * @return Every non-redirect {@link Entry} the roll resolved to.
+   */
+  public List<Entry> roll(CompiledTable table) {
+    List<Entry> results = Lists.newArrayList();
+    rollInto(table, RandomSource.threadLocal(), results);
+    return results;
+  }
+
+  /**
+   * Rolls once on {@param table}, adding the resolved entries to {@param results}.
+   *
+   * @param table Compiled table to roll on.
+   * @param random Source of randomness.
+   * @param results List the non-redirect entries are added to.
+   */
+  public void rollInto(CompiledTable table, RandomSource random, List<Entry> results) {
+    rollInto(table, random, results, 0);
+  }
+
+  /**
+   * Rolls {@param count} times on the table at {@param path}, writing each roll to {@param out} as
+   * a {@link RollResult} as soon as it is made. One builder and one entry list are reused for every
+   * roll, so exports of any size hold one roll at a time.
+   *
+   * @return Number of rolls written; 0 if the table is missing.
+   */
+  public int rollTo(String path, int count, RandomSource random,
+                    MessageStreamWriter<RollResult> out) throws IOException {
+    Optional<CompiledTable> table = compile(path);
+    if (!table.isPresent()) {
+      return 0;
+    }
+    RollResult.Builder result = RollResult.newBuilder();
+    List<Entry> rolled = Lists.newArrayList();
+    for (int i = 0; i < count; i++) {
+      rolled.clear();
+      rollInto(table.get(), random, rolled);
+      out.write(result.clear().setTable(path).addAllEntries(rolled).build());
+    }
+    return count;
+  }
+
+  private void rollInto(CompiledTable table, RandomSource random, List<Entry> results,
+                        int depth) {
+    if (table.size() == 0) {
+      return;
+    }
+    int index = table.rollIndex(random);
+    if (table.redirectPath(index) == null) {
+      results.add(table.entry(index));
+      return;
+    }
+    if (depth >= MAX_REDIRECT_DEPTH) {
+      log.warn(String.format(REDIRECT_DEPTH, table.getPath(), depth));
+      return;
+    }
+    CompiledTable target = resolveRedirect(table, index);
+    if (target == null) {
+      return;
+    }
+    for (int i = table.redirectRolls(index); i > 0; i--) {
+      rollInto(target, random, results, depth + 1);
+    }
+  }
+
+  private CompiledTable resolveRedirect(CompiledTable table, int index) {
+    CompiledTable target = table.redirectTarget(index);
+    if (target == null) {
+      target = compile(table.redirectPath(index)).orElse(null);
+      if (target == null) {
+        log.warn(String.format(MISSING_REDIRECT, table.getPath(), table.redirectPath(index)));
+        return null;
+      }
+      table.setRedirectTarget(index, target);
+    }
+    return target;
+  }
+
+  /**
+   * Tables compiled from one version of the loaded tables.
+   */
+  private static final class Compiled {
+
+    private final int version;
+    private final Map<String, CompiledTable> tables = new ConcurrentHashMap<>();
+
+    private Compiled(int version) {
+      this.version = version;
+    }
+  }
+}
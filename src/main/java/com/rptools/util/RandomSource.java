@@ -0,0 +1,138 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rptools.util;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Source of randomness for the generators. The default, {@link #threadLocal()}, gives every thread
+ * its own generator so concurrent requests never share seed state. {@link #seeded(long)} gives a
+ * source that always produces the same sequence, so a generated city or batch of names can be
+ * reproduced; a seeded source is not thread-safe and should be {@link #split()} for other threads.
+ */
+public interface RandomSource {
+
+  /**
+   * @return A source backed by the calling thread's {@link ThreadLocalRandom}.
+   */
+  static RandomSource threadLocal() {
+    return ThreadLocalSource.INSTANCE;
+  }
+
+  /**
+   * @return A reproducible source backed by a {@link SplittableRandom} seeded with {@param seed}.
+   */
+  static RandomSource seeded(long seed) {
+    return new SplittableSource(new SplittableRandom(seed));
+  }
+
+  /**
+   * @return Random int in [0, bound).
+   */
+  int nextInt(int bound);
+
+  /**
+   * @return Random long.
+   */
+  long nextLong();
+
+  /**
+   * @return Random double in [0, 1).
+   */
+  double nextDouble();
+
+  /**
+   * @return Random float in [0, 1).
+   */
+  default float nextFloat() {
+    return nextInt(1 << 24) / (float) (1 << 24);
+  }
+
+  /**
+   * @return A new, independent source that can be handed to another thread. Splitting a seeded
+   * source is itself reproducible.
+   */
+  RandomSource split();
+
+  final class ThreadLocalSource implements RandomSource {
+
+    private static final ThreadLocalSource INSTANCE = new ThreadLocalSource();
+
+    private ThreadLocalSource() {
+    }
+
+    @Override
+    public int nextInt(int bound) {
+      return ThreadLocalRandom.current().nextInt(bound);
+    }
+
+    @Override
+    public long nextLong() {
+      return ThreadLocalRandom.current().nextLong();
+    }
+
+    @Override
+    public double nextDouble() {
+      return ThreadLocalRandom.current().nextDouble();
+    }
+
+    @Override
+    public float nextFloat() {
+      return ThreadLocalRandom.current().nextFloat();
+    }
+
+    /**
+     * The thread-local source is already safe to share, so it is its own split.
+     */
+    @Override
+    public RandomSource split() {
+      return this;
+    }
+  }
+
+  final class SplittableSource implements RandomSource {
+
+    private final SplittableRandom random;
+
+    private SplittableSource(SplittableRandom random) {
+      this.random = random;
+    }
+
+    @Override
+    public int nextInt(int bound) {
+      return random.nextInt(bound);
+    }
+
+    @Override
+    public long nextLong() {
+      return random.nextLong();
+    }
+
+    @Override
+    public double nextDouble() {
+      return random.nextDouble();
+    }
+
+    @Override
+    public RandomSource split() {
+      return new SplittableSource(random.split());
+    }
+  }
+}
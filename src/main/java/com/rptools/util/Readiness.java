@@ -0,0 +1,43 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.util;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A component that loads its data in the background at startup. Calls that need the data wait for
+ * it, so a component can serve requests as soon as its own data is in, whatever else is still
+ * loading.
+ */
+public interface Readiness {
+
+  /**
+   * @return Completes once the component's data is loaded, or exceptionally if it failed to load.
+   */
+  CompletableFuture<Void> getReady();
+
+  /**
+   * @return Whether the component has loaded its data and can serve requests without waiting.
+   */
+  default boolean isReady() {
+    CompletableFuture<Void> ready = getReady();
+    return ready.isDone() && !ready.isCompletedExceptionally();
+  }
+}
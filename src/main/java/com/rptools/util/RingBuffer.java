@@ -0,0 +1,118 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rptools.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free queue for any number of producers and consumers (Vyukov's array queue). Each
+ * slot carries a sequence number telling producers and consumers whose turn it is, so {@link
+ * #offer} and {@link #poll} only ever compare-and-set the tail or head index.
+ *
+ * @param <T> Type of element held in the buffer.
+ */
+public final class RingBuffer<T> {
+
+  private final AtomicReferenceArray<T> items;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * @param capacity Minimum number of elements the buffer holds; rounded up to a power of two.
+   */
+  public RingBuffer(int capacity) {
+    int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+    items = new AtomicReferenceArray<>(size);
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    mask = size - 1;
+  }
+
+  /**
+   * @return Number of elements the buffer can hold.
+   */
+  public int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * @return Approximate number of elements in the buffer.
+   */
+  public int size() {
+    long size = tail.get() - head.get();
+    return (int) Math.max(0, Math.min(size, capacity()));
+  }
+
+  /**
+   * Adds {@param item} to the buffer.
+   *
+   * @return False if the buffer was full.
+   */
+  public boolean offer(T item) {
+    long position = tail.get();
+    while (true) {
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          items.lazySet(index, item);
+          sequences.set(index, position + 1);
+          return true;
+        }
+        position = tail.get();
+      } else if (difference < 0) {
+        return false;
+      } else {
+        position = tail.get();
+      }
+    }
+  }
+
+  /**
+   * Removes the oldest element from the buffer.
+   *
+   * @return The element, or null if the buffer was empty.
+   */
+  public T poll() {
+    long position = head.get();
+    while (true) {
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - (position + 1);
+      if (difference == 0) {
+        if (head.compareAndSet(position, position + 1)) {
+          T item = items.get(index);
+          items.lazySet(index, null);
+          sequences.set(index, position + mask + 1);
+          return item;
+        }
+        position = head.get();
+      } else if (difference < 0) {
+        return null;
+      } else {
+        position = head.get();
+      }
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.annotation.PreDestroy;
+import lombok.extern.apachecommons.CommonsLog;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs the components' data loads concurrently at startup, so boot takes as long as the slowest
+ * load rather than all of them in a row. Uses rptools.startup.threads threads (default one per
+ * processor), which exit once they have been idle for a while; with 0 every load runs on the
+ * calling thread as before.
+ */
+@Component
+@CommonsLog
+public class StartupExecutor implements Executor {
+
+  private static final String THREADS = "rptools.startup.threads";
+  private static final String THREAD_NAME = "startup-%d";
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  private final ThreadPoolExecutor executor;
+
+  @Autowired
+  public StartupExecutor(Environment environment) {
+    int threads = environment.getProperty(THREADS, Integer.class,
+                                          Runtime.getRuntime().availableProcessors());
+    if (threads > 0) {
+      executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                        new LinkedBlockingQueue<>(),
+                                        new ThreadFactoryBuilder().setNameFormat(THREAD_NAME)
+                                                                  .setDaemon(true)
+                                                                  .build());
+      executor.allowCoreThreadTimeOut(true);
+    } else {
+      executor = null;
+    }
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    if (executor == null) {
+      command.run();
+    } else {
+      executor.execute(command);
+    }
+  }
+
+  /**
+   * Starts {@param load} on a startup thread.
+   *
+   * @return Completes with the loaded data, or exceptionally if the load threw.
+   */
+  public <T> CompletableFuture<T> supply(Supplier<T> load) {
+    return CompletableFuture.supplyAsync(load, this);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rptools.city;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import com.google.common.io.Files;
+import com.rptools.city.City.Species;
+import com.rptools.io.CityFileParser;
+import com.rptools.io.DataFolder;
+import com.rptools.io.NameFileParser;
+import com.rptools.metrics.InMemoryMetricsRegistry;
+import com.rptools.metrics.MetricsRegistry;
+import com.rptools.name.NameGen;
+import com.rptools.util.StartupExecutor;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.core.env.StandardEnvironment;
+
+public class CityGenTest {
+
+  private static final String CITY_DATA =
+      "{\"inns\": {\"begPat\": [\"The {a}\"], \"beg\": [\"Rusty\"], \"endPat\": [\"{n}\"],"
+      + " \"end\": [\"Anchor\"]}, \"guilds\": {\"pat\": [\"{g} of {n}\"], \"group\": [\"Guild\"],"
+      + " \"noun\": [\"Smiths\"]}}";
+
+  @Rule
+  public DataFolder data = new DataFolder();
+
+  private MetricsRegistry metrics;
+  private NameGen nameGen;
+  private CityGen cityGen;
+
+  @Before
+  public void setUp() throws IOException {
+    write("names.txt", "ANNA:1\nBORIS:1\nKELLA:1");
+    write("lastNames.txt", "SMITH:1\nJONES:1");
+    write("cityData.json", CITY_DATA);
+    StandardEnvironment environment = new StandardEnvironment();
+    StartupExecutor startup = new StartupExecutor(environment);
+    metrics = new InMemoryMetricsRegistry();
+    nameGen = new NameGen(new NameFileParser(metrics), environment, metrics, startup);
+    cityGen = new CityGen(new CityFileParser(metrics), nameGen, environment, metrics, startup);
+  }
+
+  @After
+  public void tearDown() {
+    nameGen.shutdown();
+  }
+
+  @Test
+  public void cachesCitiesBySeedAndParameters() {
+    City city = cityGen.generateCity(1000.0, 0.5, Species.Human, 1);
+    assertEquals(city, cityGen.generateCity(1000.0, 0.5, Species.Human, 1));
+    assertEquals(1, gauge("cities.cache.hits"));
+
+    cityGen.generateCity(1000.0, 0.5, Species.Human, 2);
+    cityGen.generateCity(2000.0, 0.5, Species.Human, 1);
+    cityGen.generateCity(1000.0, 0.6, Species.Human, 1);
+    cityGen.generateCity(1000.0, 0.5, Species.Dwarf, 1);
+    assertEquals(1, gauge("cities.cache.hits"));
+    assertEquals(5, gauge("cities.cache.misses"));
+  }
+
+  @Test
+  public void reloadedNamesAreNotServedFromTheCache() throws IOException {
+    City city = cityGen.generateCity(1000.0, 0.5, Species.Human, 1);
+    File names = write("names.txt", "OLAF:1");
+    write("lastNames.txt", "BRANDT:1");
+    nameGen.dataFileChanged(names.toPath(), false);
+
+    City reloaded = cityGen.generateCity(1000.0, 0.5, Species.Human, 1);
+    assertEquals(2, gauge("cities.cache.misses"));
+    assertNotEquals(city.getRuler().getName(), reloaded.getRuler().getName());
+  }
+
+  @Test
+  public void reloadedPatternsAreNotServedFromTheCache() throws IOException {
+    City city = cityGen.generateCity(1000.0, 0.5, Species.Human, 1);
+    File cityData = write("cityData.json", CITY_DATA.replace("Rusty", "Golden"));
+    cityGen.dataFileChanged(cityData.toPath(), false);
+
+    City reloaded = cityGen.generateCity(1000.0, 0.5, Species.Human, 1);
+    assertEquals(2, gauge("cities.cache.misses"));
+    assertEquals(city.getInnsList().toString().replace("Rusty", "Golden"),
+                 reloaded.getInnsList().toString());
+  }
+
+  private long gauge(String name) {
+    return (Long) metrics.snapshot().get(name);
+  }
+
+  private File write(String fileName, String text) throws IOException {
+    File file = new File(data.getRoot(), fileName);
+    Files.write(text, file, StandardCharsets.UTF_8);
+    return file;
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.city;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+public class TemplateTest {
+
+  private static final String INN_SLOTS = "anp";
+  private static final Map<Character, String> INN_VALUES =
+      ImmutableMap.of('a', "Golden", 'n', "Goose", 'p', "Marta");
+
+  @Test
+  public void expandsLikeTheRegexGenerator() {
+    String[] patterns = {"The {a} {n}", "{p}'s {n}", "{a}{n}", "{n}", "Inn", "", "{a} and {a}",
+                         "{p} {-} {n}", "{-}{a}{-}", "{a", "a}", "{{a}}"};
+    for (String pattern : patterns) {
+      assertEquals(pattern, regexExpand(pattern, INN_VALUES), expand(pattern, INN_VALUES));
+    }
+  }
+
+  @Test
+  public void expandsNestedSlotsLikeTheRegexGenerator() {
+    // the old generator kept replacing until no slot was left, so words could hold slots too
+    Map<Character, String> nested = ImmutableMap.of('a', "{p}'s", 'n', "Rest of {p}", 'p', "Olaf");
+    assertEquals(regexExpand("The {a} {n}", nested), expand("The {a} {n}", nested));
+    assertEquals("The Olaf's Rest of Olaf", expand("The {a} {n}", nested));
+  }
+
+  @Test
+  public void expandsRandomPatternsLikeTheRegexGenerator() {
+    Random random = new Random(1);
+    String pieces = "ab {}-anp";
+    for (int i = 0; i < 10000; i++) {
+      StringBuilder pattern = new StringBuilder();
+      for (int length = random.nextInt(12); length > 0; length--) {
+        if (random.nextInt(3) == 0) {
+          pattern.append('{').append(INN_SLOTS.charAt(random.nextInt(3))).append('}');
+        } else {
+          pattern.append(pieces.charAt(random.nextInt(pieces.length())));
+        }
+      }
+      String text = pattern.toString();
+      if (text.matches(".*\\{[^-anp]\\}.*")) {
+        // the old generator never finished on an unknown slot
+        continue;
+      }
+      assertEquals(text, regexExpand(text, INN_VALUES), expand(text, INN_VALUES));
+    }
+  }
+
+  private static String expand(String pattern, Map<Character, String> values) {
+    StringBuilder out = new StringBuilder();
+    Template.parse(pattern, INN_SLOTS).expand(out, new Template.SlotSource<Void>() {
+      @Override
+      public void append(char slot, StringBuilder text, Void context) {
+        Template.parse(values.get(slot), INN_SLOTS).expand(text, this, context);
+      }
+    }, null);
+    return out.toString();
+  }
+
+  /**
+   * The inn name loop CityGen used before templates, with each slot always filled the same way.
+   */
+  private static String regexExpand(String pattern, Map<Character, String> values) {
+    String text = pattern;
+    while (text.matches(".*\\{[^-]\\}.*")) {
+      text = text.replaceFirst("\\{a\\}", values.get('a'));
+      text = text.replaceFirst("\\{n\\}", values.get('n'));
+      text = text.replaceFirst("\\{p\\}", values.get('p'));
+    }
+    return text;
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.io;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * A temporary folder standing in for the /data/ resource directory: while a test runs, the
+ * thread's context class loader finds /data/[name] resources in the folder instead.
+ */
+public class DataFolder extends TemporaryFolder {
+
+  private static final String DATA = "/data/";
+
+  private ClassLoader original;
+
+  @Override
+  protected void before() throws Throwable {
+    super.before();
+    Thread thread = Thread.currentThread();
+    original = thread.getContextClassLoader();
+    File root = getRoot();
+    thread.setContextClassLoader(new ClassLoader(original) {
+      @Override
+      public URL getResource(String name) {
+        if (!name.startsWith(DATA)) {
+          return super.getResource(name);
+        }
+        File file = new File(root, name.substring(DATA.length()));
+        try {
+          return file.exists() ? file.toURI().toURL() : null;
+        } catch (MalformedURLException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    });
+  }
+
+  @Override
+  protected void after() {
+    Thread.currentThread().setContextClassLoader(original);
+    super.after();
+  }
+}
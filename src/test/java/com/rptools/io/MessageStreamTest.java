@@ -0,0 +1,82 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.common.collect.Lists;
+import com.rptools.table.RPTable.Entry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import org.junit.Test;
+
+public class MessageStreamTest {
+
+  @Test
+  public void delimitedRoundTrip() throws IOException {
+    assertRoundTrip(StreamFormat.DELIMITED);
+  }
+
+  @Test
+  public void jsonRoundTrip() throws IOException {
+    assertRoundTrip(StreamFormat.JSON);
+  }
+
+  @Test
+  public void emptyStreamHasNoMessages() throws IOException {
+    for (StreamFormat format : StreamFormat.values()) {
+      try (MessageStreamReader<Entry> reader =
+               new MessageStreamReader<>(new ByteArrayInputStream(new byte[0]), format,
+                                         Entry.getDefaultInstance())) {
+        assertFalse(reader.hasNext());
+      }
+    }
+  }
+
+  private static void assertRoundTrip(StreamFormat format) throws IOException {
+    List<Entry> written = Lists.newArrayList();
+    for (int i = 0; i < 1000; i++) {
+      written.add(Entry.newBuilder()
+                       .setWeight(i)
+                       .setRoll(String.valueOf(i))
+                       .addValues("value " + i)
+                       .addValues("line\nbreak")
+                       .build());
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (MessageStreamWriter<Entry> writer = new MessageStreamWriter<>(bytes, format)) {
+      for (Entry entry : written) {
+        writer.write(entry);
+      }
+      assertEquals(written.size(), writer.getCount());
+    }
+
+    List<Entry> read = Lists.newArrayList();
+    try (MessageStreamReader<Entry> reader =
+             new MessageStreamReader<>(new ByteArrayInputStream(bytes.toByteArray()), format,
+                                       Entry.getDefaultInstance())) {
+      reader.forEachRemaining(read::add);
+    }
+    assertEquals(written, read);
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.name;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.io.Files;
+import com.rptools.io.DataFolder;
+import com.rptools.io.NameFileParser;
+import com.rptools.metrics.InMemoryMetricsRegistry;
+import com.rptools.metrics.MetricsRegistry;
+import com.rptools.util.StartupExecutor;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.core.env.StandardEnvironment;
+
+public class NameGenTest {
+
+  @Rule
+  public DataFolder data = new DataFolder();
+
+  @Test
+  public void reloadReplacesChangedNames() throws IOException {
+    File first = writeNames("names.txt", "ANNA:1");
+    File last = writeNames("lastNames.txt", "SMITH:1");
+    NameGen nameGen = newNameGen();
+    assertEquals("Anna Smith", nameGen.generateNames(1, 1).get(0));
+
+    writeNames("names.txt", "BORIS:1");
+    nameGen.dataFileChanged(first.toPath(), false);
+    assertEquals("Boris Smith", nameGen.generateNames(1, 2).get(0));
+
+    writeNames("lastNames.txt", "JONES:1");
+    nameGen.dataFileChanged(last.toPath(), false);
+    assertEquals("Boris Jones", nameGen.generateNames(1, 3).get(0));
+  }
+
+  @Test
+  public void ignoresOtherFiles() throws IOException {
+    writeNames("names.txt", "ANNA:1");
+    writeNames("lastNames.txt", "SMITH:1");
+    NameGen nameGen = newNameGen();
+
+    File other = writeNames("other.txt", "BORIS:1");
+    nameGen.dataFileChanged(other.toPath(), false);
+    assertEquals("Anna Smith", nameGen.generateNames(1, 1).get(0));
+  }
+
+  private static NameGen newNameGen() {
+    MetricsRegistry metrics = new InMemoryMetricsRegistry();
+    StandardEnvironment environment = new StandardEnvironment();
+    return new NameGen(new NameFileParser(metrics), environment, metrics,
+                       new StartupExecutor(environment));
+  }
+
+  private File writeNames(String fileName, String names) throws IOException {
+    File file = new File(data.getRoot(), fileName);
+    Files.write(names, file, StandardCharsets.UTF_8);
+    return file;
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.name;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.rptools.util.RandomSource;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NameModelTest {
+
+  private static final String[] NAMES = {"MARA", "MARIS", "MAREN", "TOMAS", "KELLA", "BORIN"};
+
+  private NameModel model;
+
+  @Before
+  public void setUp() {
+    NameModel.Builder builder = NameModel.builder(new SegmentDictionary());
+    for (String name : NAMES) {
+      builder.process(name, 1);
+    }
+    model = builder.build();
+  }
+
+  @Test
+  public void splitsNamesIntoVowelAndConsonantRuns() {
+    String name = "LIERGAARD";
+    List<String> segments = Lists.newArrayList();
+    for (int i = 0; i < name.length(); ) {
+      int end = NameModel.segmentEnd(name, i, name.length());
+      segments.add(name.substring(i, end));
+      i = end;
+    }
+    assertEquals(Lists.newArrayList("L", "IE", "RG", "AA", "RD"), segments);
+  }
+
+  @Test
+  public void singleNameIsAlwaysGenerated() {
+    NameModel single = NameModel.builder(new SegmentDictionary()).process("LIERGAARD", 1).build();
+    RandomSource random = RandomSource.seeded(1);
+    for (int depth = NameModel.MIN_DEPTH; depth <= NameModel.MAX_DEPTH; depth++) {
+      assertEquals("LIERGAARD", single.generate(depth, random));
+    }
+  }
+
+  @Test
+  public void namesAreMadeOfTrainedSegments() {
+    Set<String> segments = Sets.newHashSet();
+    for (String name : NAMES) {
+      for (int i = 0; i < name.length(); ) {
+        int end = NameModel.segmentEnd(name, i, name.length());
+        segments.add(name.substring(i, end));
+        i = end;
+      }
+    }
+    RandomSource random = RandomSource.seeded(2);
+    for (int i = 0; i < 1000; i++) {
+      String name = model.generate(2, random);
+      assertTrue(name, !name.isEmpty());
+      for (int start = 0; start < name.length(); ) {
+        int end = NameModel.segmentEnd(name, start, name.length());
+        assertTrue(name, segments.contains(name.substring(start, end)));
+        start = end;
+      }
+    }
+  }
+
+  @Test
+  public void picksTransitionsInProportionToWeight() {
+    NameModel weighted = NameModel.builder(new SegmentDictionary())
+                                  .process("TOMAS", 9)
+                                  .process("KELLA", 1)
+                                  .build();
+    RandomSource random = RandomSource.seeded(3);
+    int toms = 0;
+    for (int i = 0; i < 10000; i++) {
+      if (weighted.generate(3, random).equals("TOMAS")) {
+        toms++;
+      }
+    }
+    assertEquals(0.9, toms / 10000.0, 0.02);
+  }
+
+  @Test
+  public void constrainedNamesMeetPrefixAndLength() {
+    NameConstraints constraints = NameConstraints.NONE.withPrefix("ma").withLength(4, 5);
+    RandomSource random = RandomSource.seeded(5);
+    for (int depth = NameModel.MIN_DEPTH; depth <= NameModel.MAX_DEPTH; depth++) {
+      for (int i = 0; i < 500; i++) {
+        Optional<String> name = model.generate(depth, constraints, random);
+        assertTrue(name.isPresent());
+        assertTrue(name.get(), name.get().startsWith("MA"));
+        assertTrue(name.get(), name.get().length() >= 4 && name.get().length() <= 5);
+      }
+    }
+  }
+
+  @Test
+  public void constrainedWalkKeepsTrainedWeights() {
+    NameModel weighted = NameModel.builder(new SegmentDictionary())
+                                  .process("MARA", 3)
+                                  .process("MARIS", 1)
+                                  .process("TOMAS", 100)
+                                  .build();
+    NameConstraints constraints = NameConstraints.NONE.withPrefix("MAR");
+    RandomSource random = RandomSource.seeded(6);
+    int maras = 0;
+    for (int i = 0; i < 10000; i++) {
+      if (weighted.generate(3, constraints, random).get().equals("MARA")) {
+        maras++;
+      }
+    }
+    assertEquals(0.75, maras / 10000.0, 0.02);
+  }
+
+  @Test
+  public void impossibleConstraintsGiveNoName() {
+    RandomSource random = RandomSource.seeded(7);
+    assertFalse(model.generate(2, NameConstraints.NONE.withPrefix("Z"), random).isPresent());
+    assertFalse(model.generate(2, NameConstraints.NONE.withLength(9, 12), random).isPresent());
+  }
+
+  @Test
+  public void trainingMatchesBuildingWithTheNewNames() {
+    NameModel.Builder builder = NameModel.builder(new SegmentDictionary());
+    for (String name : NAMES) {
+      builder.process(name, 1);
+    }
+    NameModel built = builder.process("LIERGAARD", 2).process("MARA", 1).build();
+    int states = model.stateCount();
+
+    NameModel trained = model.train(ImmutableMap.of("LIERGAARD", 2.0, "MARA", 1.0));
+    assertEquals(states, model.stateCount());
+    assertEquals(built.stateCount(), trained.stateCount());
+    RandomSource random = RandomSource.seeded(8);
+    RandomSource builtRandom = RandomSource.seeded(8);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(built.generate(3, builtRandom), trained.generate(3, random));
+    }
+  }
+
+  @Test
+  public void trainingLeavesTheOldModelUnchanged() {
+    RandomSource random = RandomSource.seeded(9);
+    NameModel trained = model.train(ImmutableMap.of("LIERGAARD", 1000.0));
+    for (int i = 0; i < 100; i++) {
+      assertNotEquals("LIERGAARD", model.generate(3, random));
+    }
+    assertTrue(trained.generate(3, random).contains("RGAA"));
+  }
+
+  @Test
+  public void repeatedTrainingKeepsExactWeights() {
+    NameModel.Builder builder = NameModel.builder(new SegmentDictionary());
+    for (String name : NAMES) {
+      builder.process(name, name.equals("MARA") ? 101 : 1);
+    }
+    NameModel built = builder.build();
+
+    NameModel trained = model;
+    for (int i = 0; i < 1000; i++) {
+      trained = trained.train(ImmutableMap.of("MARA", 0.1));
+    }
+    RandomSource random = RandomSource.seeded(10);
+    RandomSource builtRandom = RandomSource.seeded(10);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(built.generate(2, builtRandom), trained.generate(2, random));
+    }
+  }
+
+  @Test
+  public void oneModelCanBeTrainedTwice() {
+    NameModel first = model.train(ImmutableMap.of("LIERGAARD", 1000.0));
+    NameModel second = model.train(ImmutableMap.of("OLAF", 1000.0));
+    RandomSource random = RandomSource.seeded(11);
+    assertEquals("LIERGAARD", first.generate(3, random));
+    assertEquals("OLAF", second.generate(3, random));
+    assertEquals("LIERGAARD", first.train(ImmutableMap.of("OLAF", 1.0)).generate(3, random));
+  }
+
+  @Test
+  public void trainingCopiesOnlyTheRowsItChanges() {
+    NameModel trained = model.train(ImmutableMap.of("LIERGAARD", 1.0));
+    NameModel.Rows rows = model.rows(2);
+    NameModel.Rows trainedRows = trained.rows(2);
+    int changed = 0;
+    for (int r = 0; r < rows.size(); r++) {
+      if (rows.get(r) != trainedRows.get(r)) {
+        changed++;
+      }
+    }
+    // only the start state is shared with the other names; every later state is new
+    assertEquals(1, changed);
+    assertEquals(rows.size() + 5, trainedRows.size());
+  }
+
+  @Test
+  public void snapshotOfABranchRoundTrips() throws Exception {
+    model.train(ImmutableMap.of("LIERGAARD", 1.0));
+    NameModel branch = model.train(ImmutableMap.of("OLAF", 1.0));
+    NameModelSnapshot snapshot = NameModelSnapshot.parseFrom(branch.toSnapshot(1).toByteArray());
+    NameModel loaded = NameModel.fromSnapshot(snapshot, new SegmentDictionary()).get();
+    assertEquals(branch.stateCount(), loaded.stateCount());
+    RandomSource random = RandomSource.seeded(12);
+    RandomSource loadedRandom = RandomSource.seeded(12);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(branch.generate(3, random), loaded.generate(3, loadedRandom));
+    }
+  }
+
+  @Test
+  public void snapshotRoundTrip() throws Exception {
+    NameModelSnapshot snapshot = NameModelSnapshot.parseFrom(model.toSnapshot(42).toByteArray());
+    assertEquals(42, snapshot.getChecksum());
+    assertEquals(NameModel.SNAPSHOT_FORMAT, snapshot.getFormat());
+
+    Optional<NameModel> loaded = NameModel.fromSnapshot(snapshot, new SegmentDictionary());
+    assertTrue(loaded.isPresent());
+    assertEquals(model.stateCount(), loaded.get().stateCount());
+    RandomSource random = RandomSource.seeded(4);
+    RandomSource loadedRandom = RandomSource.seeded(4);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(model.generate(3, random), loaded.get().generate(3, loadedRandom));
+    }
+  }
+}
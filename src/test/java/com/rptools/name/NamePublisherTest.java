@@ -0,0 +1,111 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.name;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+import com.rptools.util.RandomSource;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+public class NamePublisherTest {
+
+  @Test
+  public void sendsOnlyRequestedNames() {
+    RecordingSubscriber subscriber = subscribe(5);
+    assertTrue(subscriber.names.isEmpty());
+
+    subscriber.subscription.request(2);
+    assertEquals(Lists.newArrayList("0", "1"), subscriber.names);
+    assertFalse(subscriber.completed);
+
+    subscriber.subscription.request(10);
+    assertEquals(Lists.newArrayList("0", "1", "2", "3", "4"), subscriber.names);
+    assertTrue(subscriber.completed);
+  }
+
+  @Test
+  public void stopsSendingWhenCancelled() {
+    RecordingSubscriber subscriber = subscribe(5);
+    subscriber.subscription.request(1);
+    subscriber.subscription.cancel();
+    subscriber.subscription.request(3);
+    assertEquals(1, subscriber.names.size());
+    assertFalse(subscriber.completed);
+  }
+
+  @Test
+  public void signalsErrorOnNonPositiveRequest() {
+    RecordingSubscriber subscriber = subscribe(5);
+    subscriber.subscription.request(0);
+    assertTrue(subscriber.error instanceof IllegalArgumentException);
+    subscriber.subscription.request(1);
+    assertTrue(subscriber.names.isEmpty());
+  }
+
+  @Test
+  public void completesEmptyPublisherRightAway() {
+    assertTrue(subscribe(0).completed);
+  }
+
+  private static RecordingSubscriber subscribe(long count) {
+    AtomicInteger generated = new AtomicInteger();
+    NamePublisher publisher =
+        new NamePublisher(random -> String.valueOf(generated.getAndIncrement()), count,
+                          () -> RandomSource.seeded(1));
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    return subscriber;
+  }
+
+  private static final class RecordingSubscriber implements Subscriber<String> {
+
+    private final List<String> names = Lists.newArrayList();
+    private Subscription subscription;
+    private Throwable error;
+    private boolean completed;
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(String name) {
+      names.add(name);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      this.error = error;
+    }
+
+    @Override
+    public void onComplete() {
+      completed = true;
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rptools.name;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NamesTest {
+
+  private static final String[] NAMES = {"MARA", "MARIS", "MAREN", "TOMAS", "KELLA", "BORIN"};
+
+  private Names names;
+
+  @Before
+  public void setUp() {
+    NameModel.Builder builder = NameModel.builder(new SegmentDictionary());
+    for (String name : NAMES) {
+      builder.process(name, 1);
+    }
+    names = new Names(builder.build());
+    names.addOverlay(NameAttribute.NOBLE, ImmutableMap.of("Liergaard", 1.0));
+  }
+
+  @Test
+  public void overlayGivesItsNamesTheAttributeShare() {
+    // 6 common names, and 1 noble name scaled to three times their weight
+    assertEquals(24, names.getModel(NameAttribute.NOBLE).totalWeight(), 1e-9);
+    assertEquals(6, names.getModel().totalWeight(), 1e-9);
+    assertEquals(6, names.getModel(NameAttribute.DUMB).totalWeight(), 1e-9);
+  }
+
+  @Test
+  public void trainingAddsOnlyTheNewNamesToOverlays() {
+    names.train("Olaf", 0.1);
+    assertEquals(6.1, names.getModel().totalWeight(), 1e-9);
+    assertEquals(24.1, names.getModel(NameAttribute.NOBLE).totalWeight(), 1e-9);
+
+    // a noble name is both a common name and a noble one, at the overlay's scale of 18
+    names.train("Odo", 0.2, NameAttribute.NOBLE);
+    assertEquals(6.3, names.getModel().totalWeight(), 1e-9);
+    assertEquals(24.1 + 0.2 + 0.2 * 18, names.getModel(NameAttribute.NOBLE).totalWeight(), 1e-9);
+  }
+
+  @Test
+  public void overlayIsRemadeOnceItsShareDrifts() {
+    names.train("Olaf", 6);
+    // 12 common names, and the noble name rescaled to three times their weight
+    assertEquals(48, names.getModel(NameAttribute.NOBLE).totalWeight(), 1e-9);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.rptools.table.RPTable.Entry;
+import com.rptools.util.RandomSource;
+import org.junit.Test;
+
+public class CompiledTableTest {
+
+  private static final int ROLLS = 100000;
+
+  @Test
+  public void rollsEntriesInProportionToTheirWeights() {
+    CompiledTable table = compile(1, 3, 6);
+    int[] counts = new int[table.size()];
+    RandomSource random = RandomSource.seeded(1);
+    for (int i = 0; i < ROLLS; i++) {
+      counts[table.rollIndex(random)]++;
+    }
+    assertEquals(0.1, (double) counts[0] / ROLLS, 0.01);
+    assertEquals(0.3, (double) counts[1] / ROLLS, 0.01);
+    assertEquals(0.6, (double) counts[2] / ROLLS, 0.01);
+  }
+
+  @Test
+  public void unweightedEntriesCountAsOne() {
+    CompiledTable table = compile(0, 1);
+    int[] counts = new int[table.size()];
+    RandomSource random = RandomSource.seeded(2);
+    for (int i = 0; i < ROLLS; i++) {
+      counts[table.rollIndex(random)]++;
+    }
+    assertEquals(0.5, (double) counts[0] / ROLLS, 0.01);
+  }
+
+  @Test
+  public void singleEntryIsAlwaysRolled() {
+    CompiledTable table = compile(5);
+    RandomSource random = RandomSource.seeded(3);
+    for (int i = 0; i < 100; i++) {
+      assertEquals("0", table.roll(random).getRoll());
+    }
+  }
+
+  @Test
+  public void emptyTableRollsNothing() {
+    assertNull(compile().roll(RandomSource.seeded(4)));
+  }
+
+  private static CompiledTable compile(int... weights) {
+    RPTable.Builder table = RPTable.newBuilder();
+    for (int i = 0; i < weights.length; i++) {
+      table.addEntries(Entry.newBuilder().setWeight(weights[i]).setRoll(String.valueOf(i)));
+    }
+    return new CompiledTable("test", table.build());
+  }
+}
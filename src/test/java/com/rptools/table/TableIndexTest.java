@@ -0,0 +1,102 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rptools.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.rptools.table.RPTable.Entry;
+import com.rptools.table.RPTable.Entry.Redirect;
+import org.junit.Test;
+
+public class TableIndexTest {
+
+  @Test
+  public void findsTablesByFullPath() {
+    RPTable root = tree("Roll", "Dungeon/Rooms", "Dungeon/Encounters/Level 5");
+    TableIndex index = TableIndex.build(root);
+    RPTable dungeon = root.getTablesMap().get("Dungeon");
+    assertEquals(5, index.size());
+    assertSame(dungeon, index.find("Dungeon").get());
+    assertSame(dungeon.getTablesMap().get("Encounters").getTablesMap().get("Level 5"),
+               index.find("Dungeon/Encounters/Level 5").get());
+    assertSame(root, index.find("").get());
+    assertFalse(index.find("Dungeon/Level 5").isPresent());
+    assertEquals(ImmutableList.of("Dungeon/Encounters", "Dungeon/Encounters/Level 5",
+                                  "Dungeon/Rooms"),
+                 ImmutableList.copyOf(TableIndex.withPrefix(index.getPaths(), "Dungeon/")));
+  }
+
+  @Test
+  public void resolvesRedirectsAsWritten() {
+    RPTable root = tree("Roll -> /Dungeon/ Rooms/", "Dungeon/Rooms", "Lost -> Dungeon/Cellar");
+    TableIndex index = TableIndex.build(root);
+    RPTable rooms = root.getTablesMap().get("Dungeon").getTablesMap().get("Rooms");
+    assertSame(rooms, index.find("/Dungeon/ Rooms/").get());
+    assertSame(rooms, index.find("Dungeon/Rooms").get());
+    assertFalse(index.find("Dungeon/Cellar").isPresent());
+  }
+
+  @Test
+  public void marksEveryTableOnARedirectCycle() {
+    RPTable root = tree("Loop -> Loop",
+                        "Left -> Right", "Right -> Left", "Left -> Middle", "Middle -> /Right",
+                        "Into -> Left", "Out -> Dungeon/Rooms", "Dungeon/Rooms");
+    TableIndex index = TableIndex.build(root);
+    assertTrue(index.hasRedirectCycle("Loop"));
+    assertTrue(index.hasRedirectCycle("Left"));
+    assertTrue(index.hasRedirectCycle("/Right/"));
+    assertTrue(index.hasRedirectCycle("Middle"));
+    assertFalse(index.hasRedirectCycle("Into"));
+    assertFalse(index.hasRedirectCycle("Out"));
+    assertFalse(index.hasRedirectCycle("Dungeon/Rooms"));
+    assertFalse(index.hasRedirectCycle(""));
+  }
+
+  /**
+   * Builds a root table from slash-separated paths; "Path -> Target" gives the table at Path a
+   * single entry redirecting to Target.
+   */
+  static RPTable tree(String... paths) {
+    RPTable.Builder root = RPTable.newBuilder();
+    for (String path : paths) {
+      String[] redirect = path.split(" -> ");
+      add(root, redirect[0].split("/"), 0, redirect.length > 1 ? redirect[1] : null);
+    }
+    return root.build();
+  }
+
+  private static void add(RPTable.Builder folder, String[] names, int depth, String redirect) {
+    String name = names[depth];
+    RPTable.Builder table = folder.getTablesMap()
+                                  .getOrDefault(name, RPTable.newBuilder().setName(name).build())
+                                  .toBuilder();
+    if (depth + 1 < names.length) {
+      add(table, names, depth + 1, redirect);
+    } else if (redirect != null) {
+      table.addEntries(Entry.newBuilder()
+                            .setWeight(1)
+                            .setRedirect(Redirect.newBuilder().setTablePath(redirect)));
+    }
+    folder.putTables(name, table.build());
+  }
+}
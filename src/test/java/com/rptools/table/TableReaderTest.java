@@ -0,0 +1,256 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.rptools.io.DataFolder;
+import com.rptools.io.TableFileParser;
+import com.rptools.metrics.InMemoryMetricsRegistry;
+import com.rptools.metrics.MetricsRegistry;
+import com.rptools.util.StartupExecutor;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.SortedSet;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+public class TableReaderTest {
+
+  private static final String LAZY = "rptools.tables.lazy";
+  private static final int TABLES_PER_FOLDER = 20;
+
+  @Rule
+  public DataFolder data = new DataFolder();
+
+  @Test
+  public void loadsTheSameTreeEveryRun() throws IOException {
+    RPTable first = null;
+    for (int run = 0; run < 10; run++) {
+      File root = new File(data.getRoot(), "tables");
+      FileUtils.deleteDirectory(root);
+      writeTables(root);
+      RPTable tables = newReader(false).getTables();
+      if (first == null) {
+        first = tables;
+      } else {
+        assertEquals(first, tables);
+      }
+    }
+    assertEquals(TABLES_PER_FOLDER + 2, first.getTablesCount());
+    RPTable dungeon = first.getTablesMap().get("Dungeon");
+    assertEquals(TABLES_PER_FOLDER + 1, dungeon.getTablesCount());
+    assertEquals(ImmutableSet.of("Dark", "Damp"),
+                 ImmutableSet.copyOf(dungeon.getTablesMap().get("Level Five").getEntries(0)
+                                            .getValuesList()));
+  }
+
+  @Test
+  public void readsJsonBeforeTheTextTableSharingItsName() throws IOException {
+    for (int run = 0; run < 10; run++) {
+      File root = new File(data.getRoot(), "tables");
+      FileUtils.deleteDirectory(root);
+      writeTables(root);
+      File dungeon = new File(root, "Dungeon");
+      writeJson(new File(dungeon, "05LevelFive.json"), "Level Five", "Misty");
+
+      RPTable levelFive = newReader(false).getTable("Dungeon/Level Five").get();
+      assertEquals("Misty", levelFive.getEntries(0).getValues(0));
+      assertFalse(new File(dungeon, "05LevelFive.txt").exists());
+    }
+  }
+
+  @Test
+  public void mergesFolderWithTheTableSharingItsName() throws IOException {
+    writeTables(data.newFolder("tables"));
+    RPTable inn = newReader(false).getTables().getTablesMap().get("Inn");
+    assertEquals("Inn", inn.getName());
+    assertEquals(2, inn.getEntriesCount());
+    assertTrue(inn.getTablesMap().containsKey("Patrons"));
+  }
+
+  @Test
+  public void lazyModeFindsTablesByTheNamesInTheirFiles() throws IOException {
+    writeTables(data.newFolder("tables"));
+    TableReader lazy = newReader(true);
+    SortedSet<String> lazyPaths = lazy.listTables("");
+    RPTable room = lazy.getTable("Dungeon/Room 1").get();
+
+    TableReader eager = newReader(false);
+    assertEquals(eager.listTables(""), lazyPaths);
+    assertEquals(eager.getTable("Dungeon/Room 1").get(), room);
+    assertFalse(lazy.getTable("Dungeon/Room1").isPresent());
+  }
+
+  @Test
+  public void reloadReplacesChangedTable() throws IOException {
+    File root = data.newFolder("tables");
+    writeTables(root);
+    TableReader reader = newReader(false);
+    RPTable before = reader.getTables();
+
+    File changed = new File(root, "Dungeon/Room0.json");
+    writeJson(changed, "Room 0", "Changed");
+    reader.dataFileChanged(changed.toPath(), false);
+    assertEquals("Changed", reader.getTable("Dungeon/Room 0").get().getEntries(0).getValues(0));
+    assertEquals(1, reader.getVersion());
+    // every other table is shared with the old tree
+    assertSame(before.getTablesMap().get("Inn"), reader.getTables().getTablesMap().get("Inn"));
+  }
+
+  @Test
+  public void reloadDropsDeletedTable() throws IOException {
+    File root = data.newFolder("tables");
+    writeTables(root);
+    TableReader reader = newReader(false);
+    assertTrue(reader.getTable("Inn/Patrons").isPresent());
+
+    File deleted = new File(root, "Inn/Patrons.json");
+    assertTrue(deleted.delete());
+    reader.dataFileChanged(deleted.toPath(), true);
+    assertFalse(reader.getTable("Inn/Patrons").isPresent());
+    assertEquals(2, reader.getTable("Inn").get().getEntriesCount());
+  }
+
+  @Test
+  public void lazyReloadReplacesChangedTable() throws IOException {
+    File root = data.newFolder("tables");
+    writeTables(root);
+    TableReader reader = newReader(true);
+    assertEquals("Merchant", reader.getTable("Inn/Patrons").get().getEntries(0).getValues(0));
+
+    File changed = new File(root, "Inn/Patrons.json");
+    writeJson(changed, "Patrons", "Sailor");
+    reader.dataFileChanged(changed.toPath(), false);
+    assertEquals("Sailor", reader.getTable("Inn/Patrons").get().getEntries(0).getValues(0));
+    assertEquals("Sailor", reader.getTable("Inn").get().getTablesMap().get("Patrons")
+                                 .getEntries(0).getValues(0));
+
+    assertTrue(changed.delete());
+    reader.dataFileChanged(changed.toPath(), true);
+    assertFalse(reader.getTable("Inn/Patrons").isPresent());
+  }
+
+  @Test
+  public void reloadReplacesChangedTableInTheRootFolder() throws IOException {
+    for (boolean lazy : new boolean[]{false, true}) {
+      File root = new File(data.getRoot(), "tables");
+      FileUtils.deleteDirectory(root);
+      writeTables(root);
+      TableReader reader = newReader(lazy);
+      assertEquals(2, reader.getTable("Inn").get().getEntriesCount());
+
+      File changed = new File(root, "Inn.json");
+      writeJson(changed, "Inn", "Quiet");
+      reader.dataFileChanged(changed.toPath(), false);
+      RPTable inn = reader.getTable("Inn").get();
+      assertEquals("Quiet", inn.getEntries(0).getValues(0));
+      assertTrue(inn.getTablesMap().containsKey("Patrons"));
+      assertFalse(reader.getTables().getTablesMap().containsKey(""));
+    }
+  }
+
+  @Test
+  public void reloadDropsDeletedTableByTheNameInItsFile() throws IOException {
+    for (boolean lazy : new boolean[]{false, true}) {
+      File root = new File(data.getRoot(), "tables");
+      FileUtils.deleteDirectory(root);
+      writeTables(root);
+      TableReader reader = newReader(lazy);
+      assertTrue(reader.getTable("Dungeon/Room 1").isPresent());
+
+      File deleted = new File(root, "Dungeon/Room1.json");
+      assertTrue(deleted.delete());
+      reader.dataFileChanged(deleted.toPath(), true);
+      assertFalse(reader.getTable("Dungeon/Room 1").isPresent());
+      assertTrue(reader.getTable("Dungeon/Room 2").isPresent());
+      assertEquals(TABLES_PER_FOLDER, reader.getTable("Dungeon").get().getTablesCount());
+    }
+  }
+
+  @Test
+  public void deletingATableKeepsTheFolderSharingItsName() throws IOException {
+    for (boolean lazy : new boolean[]{false, true}) {
+      File root = new File(data.getRoot(), "tables");
+      FileUtils.deleteDirectory(root);
+      writeTables(root);
+      TableReader reader = newReader(lazy);
+      assertEquals(2, reader.getTable("Inn").get().getEntriesCount());
+
+      File deleted = new File(root, "Inn.json");
+      assertTrue(deleted.delete());
+      reader.dataFileChanged(deleted.toPath(), true);
+      assertEquals(0, reader.getTable("Inn").get().getEntriesCount());
+      assertTrue(reader.getTable("Inn/Patrons").isPresent());
+    }
+  }
+
+  /**
+   * Writes json tables in the root and a subfolder, a text table, and a folder with a table file
+   * of the same name.
+   */
+  private static void writeTables(File root) throws IOException {
+    assertTrue(root.isDirectory() || root.mkdirs());
+    File dungeon = new File(root, "Dungeon");
+    File inn = new File(root, "Inn");
+    assertTrue(dungeon.mkdir() && inn.mkdir());
+    for (int i = 0; i < TABLES_PER_FOLDER; i++) {
+      writeJson(new File(root, "Table" + i + ".json"), "Table " + i, "Value " + i);
+      writeJson(new File(dungeon, "Room" + i + ".json"), "Room " + i, "Room value " + i);
+    }
+    write(new File(dungeon, "05LevelFive.txt"), "Roll\tLight\tAir\n1-2\tDark\tDamp\n3\tLit\tDry\n");
+    writeJson(new File(root, "Inn.json"), "Inn", "Cozy", "Rowdy");
+    writeJson(new File(inn, "Patrons.json"), "Patrons", "Merchant");
+  }
+
+  private static void writeJson(File file, String name, String... values) throws IOException {
+    StringBuilder json = new StringBuilder("{\"name\": \"").append(name)
+                                                              .append("\", \"entries\": [");
+    for (int i = 0; i < values.length; i++) {
+      json.append(i == 0 ? "" : ", ")
+          .append("{\"weight\": 1, \"roll\": \"").append(i + 1)
+          .append("\", \"values\": [\"").append(values[i]).append("\"]}");
+    }
+    write(file, json.append("]}").toString());
+  }
+
+  static void write(File file, String text) throws IOException {
+    Files.write(text, file, StandardCharsets.UTF_8);
+  }
+
+  static TableReader newReader(boolean lazy) {
+    MetricsRegistry metrics = new InMemoryMetricsRegistry();
+    StandardEnvironment environment = new StandardEnvironment();
+    environment.getPropertySources()
+               .addFirst(new MapPropertySource("test", ImmutableMap.of(LAZY, lazy)));
+    return new TableReader(new TableFileParser(metrics), environment, metrics,
+                           new StartupExecutor(environment));
+  }
+}
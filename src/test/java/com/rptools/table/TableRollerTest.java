@@ -0,0 +1,64 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.table;
+
+import static com.rptools.table.TableReaderTest.newReader;
+import static com.rptools.table.TableReaderTest.write;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.rptools.io.DataFolder;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TableRollerTest {
+
+  @Rule
+  public DataFolder data = new DataFolder();
+
+  @Test
+  public void refusesTablesThatRedirectBackToThemselves() throws IOException {
+    File root = data.newFolder("tables");
+    writeRedirect(new File(root, "Ping.json"), "Ping", "Pong");
+    writeRedirect(new File(root, "Pong.json"), "Pong", "/Ping/");
+    writeRedirect(new File(root, "Serve.json"), "Serve", "Ball");
+    write(new File(root, "Ball.json"),
+          "{\"name\": \"Ball\", \"entries\": [{\"weight\": 1, \"values\": [\"Out\"]}]}");
+    TableRoller roller = new TableRoller(newReader(false));
+
+    assertEquals("Out", roller.roll("Serve").get(0).getValues(0));
+    for (String path : new String[]{"Ping", "Pong"}) {
+      try {
+        roller.roll(path);
+        fail(path + " was rolled on.");
+      } catch (IllegalStateException e) {
+        assertTrue(e.getMessage(), e.getMessage().startsWith("Table " + path + " redirects back"));
+      }
+    }
+  }
+
+  private static void writeRedirect(File file, String name, String target) throws IOException {
+    write(file, "{\"name\": \"" + name + "\", \"entries\": [{\"weight\": 1, \"redirect\": "
+                + "{\"tablePath\": \"" + target + "\"}}]}");
+  }
+}
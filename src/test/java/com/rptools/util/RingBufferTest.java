@@ -0,0 +1,103 @@
+/*
+ * RPToolkit - Tools to assist Role-Playing Game masters and players
+ * Copyright (C) 2016 Dane Zeke Liergaard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.rptools.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class RingBufferTest {
+
+  private static final int PRODUCERS = 4;
+  private static final int CONSUMERS = 4;
+  private static final int ITEMS_EACH = 20000;
+
+  @Test
+  public void capacityIsRoundedUpToPowerOfTwo() {
+    assertEquals(8, new RingBuffer<Integer>(5).capacity());
+    assertEquals(8, new RingBuffer<Integer>(8).capacity());
+    assertEquals(2, new RingBuffer<Integer>(0).capacity());
+  }
+
+  @Test
+  public void pollsInOfferOrderUntilEmpty() {
+    RingBuffer<Integer> buffer = new RingBuffer<>(4);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(buffer.offer(i));
+    }
+    assertFalse(buffer.offer(4));
+    assertEquals(4, buffer.size());
+    for (int i = 0; i < 4; i++) {
+      assertEquals(Integer.valueOf(i), buffer.poll());
+    }
+    assertNull(buffer.poll());
+    assertEquals(0, buffer.size());
+  }
+
+  @Test
+  public void deliversEveryItemOnceAcrossThreads() throws InterruptedException {
+    RingBuffer<Integer> buffer = new RingBuffer<>(64);
+    ConcurrentLinkedQueue<Integer> received = new ConcurrentLinkedQueue<>();
+    AtomicInteger remaining = new AtomicInteger(PRODUCERS * ITEMS_EACH);
+    List<Thread> threads = Lists.newArrayList();
+    for (int p = 0; p < PRODUCERS; p++) {
+      int first = p * ITEMS_EACH;
+      threads.add(new Thread(() -> {
+        for (int i = first; i < first + ITEMS_EACH; i++) {
+          while (!buffer.offer(i)) {
+            Thread.yield();
+          }
+        }
+      }));
+    }
+    for (int c = 0; c < CONSUMERS; c++) {
+      threads.add(new Thread(() -> {
+        while (remaining.get() > 0) {
+          Integer item = buffer.poll();
+          if (item == null) {
+            Thread.yield();
+          } else {
+            received.add(item);
+            remaining.decrementAndGet();
+          }
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    boolean[] seen = new boolean[PRODUCERS * ITEMS_EACH];
+    for (int item : received) {
+      assertFalse("received twice: " + item, seen[item]);
+      seen[item] = true;
+    }
+    assertEquals(seen.length, received.size());
+    assertNull(buffer.poll());
+  }
+}